@@ -26,23 +26,72 @@ Communication.prototype.listApps = function (filter) {
 	});
 }
 
-//push the code
-Communication.prototype.pushCode = function (project) { 
+//the part of the code that changed as {from, to, text}, offsets in before
+function codeEdit(before, after) { 
+	if (before === undefined || before === null) { 
+		return null;
+	}
+
+	var start = 0;
+	var max = Math.min(before.length, after.length);
+	while (start < max && before.charAt(start) == after.charAt(start)) { 
+		start++;
+	}
+
+	var endBefore = before.length;
+	var endAfter = after.length;
+	while (endBefore > start && endAfter > start && before.charAt(endBefore - 1) == after.charAt(endAfter - 1)) { 
+		endBefore--;
+		endAfter--;
+	}
+
+	//don't split a surrogate pair
+	if (start > 0 && /[\ud800-\udbff]/.test(before.charAt(start - 1))) { 
+		start--;
+	}
+	if (endBefore < before.length && /[\udc00-\udfff]/.test(before.charAt(endBefore))) { 
+		endBefore++;
+		endAfter++;
+	}
+
+	return {from: start, to: endBefore, text: after.substring(start, endAfter)};
+}
+
+//push the code, only the edit when the device has the version we started from
+Communication.prototype.pushCode = function (project, fullCode) { 
 	var obj = {};
 	obj.cmd = "push_code";
 
 	var o = new Object(); 
 	o.name = project.name;
 	o.url = project.url;
-	o.code = project.code;
 	o.type = project.type;
 
+	var code = project.code;
+	var edit = fullCode ? null : codeEdit(project.savedCode, code);
+	if (edit != null && project.hash) { 
+		o.patch = JSON.stringify([edit]);
+		o.base = project.hash;
+	} else {
+		o.code = code;
+	}
+
+	var self = this;
 	$.ajax({
 		url:this.remoteIP + "cmd="+JSON.stringify(obj),
 		type: 'post',
 		data: o,
 		success: function(data) {
-			
+			var result = JSON.parse(data);
+			if (result.error) { 
+				alert('Cannot save ' + project.name + ': ' + result.error);
+			} else if (result.mismatch) { 
+				//the device has another version, send all the code
+				self.pushCode(project, true);
+			} else { 
+				project.savedCode = code;
+				project.hash = result.hash;
+			}
 		}
 	});
 } 
@@ -83,6 +132,9 @@ Communication.prototype.fetchCode = function(pName, pType) {
   		protocoder.editor.setCode(unescape(code.code));
   		currentProject.name = pName;
   		currentProject.type = pType;
+  		//what the device has, the next push only sends the changes
+  		currentProject.savedCode = code.code;
+  		currentProject.hash = code.hash;
   		document.title = " protocoder | " + pName;
   		var tabs = w2ui['code_editor'].get("main").tabs;
   		tabs.get("tab1").caption = pName;
@@ -132,6 +184,15 @@ Communication.prototype.runApp = function (project) {
 }
 
 
+//the running script and the next ones send their profile while it is on
+Communication.prototype.profileScripts = function (enabled) {
+	var obj = {};
+	obj.cmd = "profile_scripts";
+	obj.enabled = enabled;
+	$.get(this.remoteIP + "cmd="+JSON.stringify(obj), function(data) {
+	});
+}
+
 Communication.prototype.createNewProject = function (new_name) {
 	var obj = {};
 	obj.cmd = "create_new_project";
@@ -191,14 +252,86 @@ Communication.prototype.getCamera = function () {
 var ws; 
 var widgetsFn = new Object();
 
+/*
+* u8 kind, f64 time of the first sample, u8 plots and for each plot
+* u8 id length, id, u16 samples, samples as f32 time offset and f32 value
+*/
+var PLOT_SAMPLES = 1;
+
+function decodePlotSamples(buffer) { 
+  var view = new DataView(buffer);
+  if (view.getUint8(0) != PLOT_SAMPLES) {
+    return;
+  }
+
+  var pos = 1;
+  var first = view.getFloat64(pos); pos += 8;
+  var plots = view.getUint8(pos); pos += 1;
+
+  for (var p = 0; p < plots; p++) { 
+    var idLength = view.getUint8(pos); pos += 1;
+    var id = "";
+    for (var i = 0; i < idLength; i++) { 
+      id += String.fromCharCode(view.getUint8(pos + i));
+    }
+    pos += idLength;
+
+    var count = view.getUint16(pos); pos += 2;
+    var fn = widgetsFn[id];
+    for (var n = 0; n < count; n++) { 
+      var val = view.getFloat32(pos + 4); pos += 8;
+      if (fn) { 
+        fn(val, "");
+      }
+    }
+  }
+}
+
+/*
+* properties of the widgets and the dashboard that changed, only the 
+* last value of each one is sent 
+*/
+function applyDashboardChanges(values) { 
+  $.each(values.widgets, function(id, props) {
+    if (props.text !== undefined) { 
+      protocoder.dashboard.setLabelText(id, props.text);
+    }
+    if (props.position !== undefined) { 
+      protocoder.dashboard.setSliderPosition(id, props.position);
+    }
+    if (props.url !== undefined) { 
+      protocoder.dashboard.changeImage(id, props.url);
+    }
+  });
+
+  var d = values.dashboard;
+  if (d.background !== undefined) { 
+    protocoder.dashboard.setBackgroundColor(d.background.r, d.background.g, d.background.b, d.background.alpha);
+  }
+  if (d.show !== undefined) { 
+    if (d.show == true) { 
+      protocoder.dashboard.show();
+    } else {
+      protocoder.dashboard.hide();
+    }
+  }
+}
+
 Communication.prototype.initWebsockets = function () {
   // Write your code in the same way as for native WebSocket:
   ws = new WebSocket('ws://'+ this.remoteIP +':' + this.remoteWSPORT);
+  ws.binaryType = 'arraybuffer';
   var self = this;
   ws.onopen = function() {
     self.connected();
   }
   ws.onmessage = function(e) {
+    //samples of the plots come together in binary
+    if (e.data instanceof ArrayBuffer) { 
+      decodePlotSamples(e.data);
+      return;
+    }
+
     // Receives a message.
     console.log('message', e.data)
 
@@ -271,6 +404,12 @@ Communication.prototype.initWebsockets = function () {
     }
     
 
+    if (result.type == "profiler") { 
+      if (result.action == "snapshot") {
+        protocoder.ui.showProfile(result.values);
+      }
+    }
+
     //console.log(result);
     if (result.type == "widget") { 
       
@@ -292,6 +431,18 @@ Communication.prototype.initWebsockets = function () {
         protocoder.dashboard.setLabelText(result.values.id, result.values.val);
       } else if (result.action == "changeImage") { 
         protocoder.dashboard.changeImage(result.values.id, result.values.url);
+      } else if (result.action == "delta") {
+        applyDashboardChanges(result.values);
+      } else if (result.action == "snapshot") {
+        //the whole dashboard, sent when connecting or after losing changes
+        protocoder.dashboard.removeWidgets();
+        widgetsFn = new Object();
+        var widgets = {};
+        $.each(result.values.widgets, function(k, w) {
+          widgetsFn[w.id] = protocoder.dashboard.addWidget(w);
+          widgets[w.id] = w;
+        });
+        applyDashboardChanges({widgets: widgets, dashboard: result.values.dashboard});
       }
 
     }
@@ -104,6 +104,10 @@ Dashboard.prototype.addSlider = function(element, name, posx, posy, w, h, min, m
           });
 } 
 
+Dashboard.prototype.setSliderPosition = function(element, val) {
+  $("#overlay #container #slider_"+ element +" input").val(val);
+}
+
 Dashboard.prototype.addButton = function(element, name, posx, posy, w, h) {
   $('<button class ="widget" id = "button_' + element +'">'+ name +' </button>')
           .appendTo("#overlay #container")
@@ -242,6 +242,15 @@ Ui.prototype.initUI = function() {
 		}
 	});
 
+	//download the project as a zip
+	$("#toolbar #exportBtn").click(function() { 
+		if (currentProject.name != undefined && currentProject.name != "") { 
+			window.location = "/export?name=" + encodeURIComponent(currentProject.name) + "&type=" + currentProject.type;
+		} else { 
+			openPopup();
+		}
+	});
+
 	//run app
 	$("#toolbar #runBtn").click(function() { 
        if (currentProject.name != 'undefined') { 
@@ -254,6 +263,11 @@ Ui.prototype.initUI = function() {
         } 
 	});
 	
+	//profile the running script
+	$("#toolbar #profilerBtn").click(function() { 
+		protocoder.ui.showProfiler();
+	});
+
 	//show hide bar
 	$("#toolbar #sideBarBtn").click(function() { 
 		w2ui['layout'].toggle('right', false);
@@ -381,6 +395,42 @@ Ui.prototype.showProjects = function() {
 	this.showProjectsStatus ^= true;
 } 
 
+Ui.prototype.showProfilerStatus = false; 
+
+//the profiler only runs while it is shown
+Ui.prototype.showProfiler = function() {
+	this.showProfilerStatus ^= true;
+	$("#profiler").toggleClass("show", this.showProfilerStatus == true);
+	protocoder.communication.profileScripts(this.showProfilerStatus == true);
+}
+
+//snapshot of the profiler, times come in microseconds
+Ui.prototype.showProfile = function(profile) {
+	var ms = function(us) { 
+		return (us / 1000).toFixed(1);
+	}
+
+	$("#profiler_status").text("instructions " + profile.instructions + ", " + profile.queue.callbacks 
+		+ " callbacks waited " + ms(profile.queue.latency) + " ms, max " + ms(profile.queue.maxLatency) + " ms");
+
+	var functions = profile.functions.sort(function(a, b) { 
+		return b.self - a.self;
+	});
+	var rows = $("#profiler_functions tbody").empty();
+	$.each(functions, function(k, f) {
+		$("<tr>").append($("<td>").text(f.name), $("<td>").text(f.calls), $("<td>").text(ms(f.self)),
+			$("<td>").text(ms(f.total)), $("<td>").text(f.instructions)).appendTo(rows);
+	});
+
+	//heaviest stacks first
+	var stacks = profile.folded.split("\n").filter(function(line) { 
+		return line.length > 0;
+	}).sort(function(a, b) { 
+		return b.substring(b.lastIndexOf(" ") + 1) - a.substring(a.lastIndexOf(" ") + 1);
+	});
+	$("#profiler_folded").text(stacks.join("\n"));
+}
+
 Ui.prototype.appRunningStatus = false; 
 Ui.prototype.appRunning = function(b) {
 	if (b) { 
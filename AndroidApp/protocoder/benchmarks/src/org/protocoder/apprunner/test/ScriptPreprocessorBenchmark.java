@@ -0,0 +1,213 @@
+/*
+ * Protocoder 
+ * A prototyping platform for Android devices 
+ * 
+ * Victor Diaz Barrales victormdb@gmail.com
+ *
+ * Copyright (C) 2013 Motorola Mobility LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions: 
+ * 
+ * The above copyright notice and this permission notice shall be included in all 
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN 
+ * THE SOFTWARE.
+ * 
+ */
+
+package org.protocoder.apprunner.test;
+
+import org.protocoder.apprunner.ScriptPreprocessor;
+
+/**
+ * Compares the single pass preprocessor with the previous chain of string
+ * replacements over large generated scripts, and checks that both give the
+ * same output. It lives outside src so it is not packaged in the app, run it
+ * in a desktop JVM with
+ * 
+ * javac -d /tmp/bench src/org/protocoder/apprunner/ScriptPreprocessor.java
+ * benchmarks/src/org/protocoder/apprunner/test/ScriptPreprocessorBenchmark.java
+ * && java -cp /tmp/bench org.protocoder.apprunner.test.ScriptPreprocessorBenchmark
+ */
+public abstract class ScriptPreprocessorBenchmark {
+
+	private ScriptPreprocessorBenchmark() { /* empty */
+	}
+
+	public static void main(String[] args) throws Exception {
+		run(2000, 50);
+	}
+
+	/**
+	 * @param blocks
+	 *            number of generated code blocks, each one is around 300
+	 *            characters
+	 * @param iterations
+	 *            times each preprocessor runs over the script
+	 */
+	public static void run(int blocks, int iterations) throws Exception {
+		String plain = generateScript(blocks, false);
+		String tagged = generateScript(blocks, true);
+
+		postln("script size " + plain.length() + " chars");
+
+		for (String code : new String[] { plain, tagged }) {
+			if (!legacyPreprocess(code).equals(ScriptPreprocessor.process(code))) {
+				throw new IllegalStateException("preprocessors don't match");
+			}
+
+			long legacy = 0;
+			long single = 0;
+			long cached = 0;
+			for (int i = 0; i < iterations; i++) {
+				long t = System.nanoTime();
+				legacyPreprocess(code);
+				legacy += System.nanoTime() - t;
+
+				t = System.nanoTime();
+				ScriptPreprocessor.process(code);
+				single += System.nanoTime() - t;
+
+				t = System.nanoTime();
+				ScriptPreprocessor.preprocess(code);
+				cached += System.nanoTime() - t;
+			}
+
+			postln((code == tagged ? "tagged" : "plain") + " legacy " + legacy / iterations / 1000 + " us, single pass "
+					+ single / iterations / 1000 + " us, cached " + cached / iterations / 1000 + " us");
+		}
+	}
+
+	static String generateScript(int blocks, boolean tagged) {
+		StringBuilder b = new StringBuilder(blocks * 320);
+		if (tagged) {
+			b.append("<html><body><script>DROIDSCRIPT_BEGIN\n");
+		}
+
+		String lt = tagged ? "&lt;" : "<";
+		String quot = tagged ? "&quot;" : "\"";
+		for (int i = 0; i < blocks; i++) {
+			b.append("var label").append(i).append(" = ui.addLabel(").append(quot).append("label ").append(i)
+					.append(quot).append(", 10, 10, 500, 100);\n");
+			b.append("for (var i = 0; i ").append(lt).append(" 10; i++) { console.log(i); }\n");
+			b.append("var html").append(i).append(" = \"\"\"<div class=\"box\">\n  block ").append(i)
+					.append("\n</div>\"\"\";\n");
+		}
+
+		if (tagged) {
+			b.append("DROIDSCRIPT_END</script></body></html>\n");
+		}
+
+		return b.toString();
+	}
+
+	/**
+	 * The previous implementation, as it was in AppRunnerInterpreter. It
+	 * doesn't decode &amp; so the generated scripts don't use it
+	 */
+	static String legacyPreprocess(String code) throws Exception {
+		return preprocessMultiLineStrings(extractCodeFromAppRunnerTags(code));
+	}
+
+	static String extractCodeFromAppRunnerTags(String code) throws Exception {
+		String startDelimiter = "DROIDSCRIPT_BEGIN";
+		String stopDelimiter = "DROIDSCRIPT_END";
+
+		// Find start delimiter
+		int start = code.indexOf(startDelimiter, 0);
+		if (-1 == start) {
+			// No delimiter found, return code untouched
+			return code;
+		}
+
+		// Find stop delimiter
+		int stop = code.indexOf(stopDelimiter, start);
+		if (-1 == stop) {
+			// No delimiter found, return code untouched
+			return code;
+		}
+
+		// Extract the code between start and stop.
+		String result = code.substring(start + startDelimiter.length(), stop);
+
+		// Replace escaped characters with plain characters.
+		return result.replace("&lt;", "<").replace("&gt;", ">").replace("&quot;", "\"");
+	}
+
+	static String preprocessMultiLineStrings(String code) throws Exception {
+		StringBuilder result = new StringBuilder(code.length() + 1000);
+
+		String delimiter = "\"\"\"";
+		int lastStop = 0;
+		while (true) {
+			// Find next multiline delimiter
+			int start = code.indexOf(delimiter, lastStop);
+			if (-1 == start) {
+				// No delimiter found, append rest of the code
+				// to result and break
+				result.append(code.substring(lastStop, code.length()));
+				break;
+			}
+
+			// Find terminating delimiter
+			int stop = code.indexOf(delimiter, start + delimiter.length());
+			if (-1 == stop) {
+				// This is an error, throw an exception with error message
+				throw new Exception("Multiline string not terminated");
+			}
+
+			// Append the code from last stop up to the start delimiter
+			result.append(code.substring(lastStop, start));
+
+			// Set new lastStop
+			lastStop = stop + delimiter.length();
+
+			// Append multiline string converted to JavaScript code
+			result.append(convertMultiLineStringToJavaScript(code.substring(start + delimiter.length(), stop)));
+		}
+
+		return result.toString();
+	}
+
+	static String convertMultiLineStringToJavaScript(String s) {
+		StringBuilder result = new StringBuilder(s.length() + 1000);
+
+		char quote = '\"';
+		char newline = '\n';
+		String backslashquote = "\\\"";
+		String concat = "\\n\" + \n\"";
+
+		result.append(quote);
+
+		for (int i = 0; i < s.length(); ++i) {
+			char c = s.charAt(i);
+			if (c == quote) {
+				result.append(backslashquote);
+			} else if (c == newline) {
+				result.append(concat);
+			} else {
+				result.append(c);
+			}
+		}
+
+		result.append(quote);
+
+		return result.toString();
+	}
+
+	protected static void postln(String text) {
+		System.out.println(text);
+	}
+
+}
@@ -51,6 +51,9 @@ public class AppSettings {
 	public static int websocketPort = 8587;
 	public static long animSpeed = 500;
 	public static int httpPort = 8585;
+	// web server workers and connections waiting for them
+	public static int httpWorkers = 12;
+	public static int httpQueueSize = 32;
 
 	public String id;
 
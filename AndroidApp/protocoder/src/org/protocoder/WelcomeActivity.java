@@ -36,6 +36,7 @@ import org.protocoder.base.BaseActivity;
 import org.protocoder.base.BaseMainApp;
 import org.protocoder.events.ProjectManager;
 import org.protocoder.events.ProjectManager.InstallListener;
+import org.protocoder.utils.AssetInstaller;
 import org.protocoder.utils.StrUtils;
 
 import android.annotation.SuppressLint;
@@ -138,6 +139,17 @@ public class WelcomeActivity extends BaseActivity {
 				i.addFlags(Intent.FLAG_ACTIVITY_CLEAR_TASK | Intent.FLAG_ACTIVITY_NEW_TASK);
 				startActivity(i);
 			}
+		}, new AssetInstaller.ProgressListener() {
+
+			@Override
+			public void onProgress(final int done, final int total) {
+				runOnUiThread(new Runnable() {
+					@Override
+					public void run() {
+						progress.setMessage("Installing examples " + done + " / " + total);
+					}
+				});
+			}
 		});
 
 	}
@@ -32,10 +32,12 @@ import java.lang.annotation.Annotation;
 import java.lang.reflect.Method;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 
 import org.protocoder.apidoc.annotation.APIMethod;
 import org.protocoder.apidoc.annotation.APIParam;
+import org.protocoder.apprunner.APIRegistry;
 
 import android.util.Log;
 
@@ -81,8 +83,9 @@ public class APIManager {
 			apiClass.name = c.getSimpleName();
 			Log.d(TAG, "" + c.getName());
 
-			// getting all the methods
-			Method m[] = c.getDeclaredMethods();
+			// getting the methods exposed to the scripts
+			List<Method> methods = APIRegistry.get(c).getMethods();
+			Method m[] = methods.toArray(new Method[methods.size()]);
 			for (int i = 0; i < m.length; i++) {
 
 				// get method
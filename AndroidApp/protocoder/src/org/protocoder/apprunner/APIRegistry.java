@@ -0,0 +1,328 @@
+/*
+ * Protocoder 
+ * A prototyping platform for Android devices 
+ * 
+ * Victor Diaz Barrales victormdb@gmail.com
+ *
+ * Copyright (C) 2013 Motorola Mobility LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions: 
+ * 
+ * The above copyright notice and this permission notice shall be included in all 
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN 
+ * THE SOFTWARE.
+ * 
+ */
+
+package org.protocoder.apprunner;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.mozilla.javascript.BaseFunction;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.Function;
+import org.mozilla.javascript.NativeJavaClass;
+import org.mozilla.javascript.NativeJavaObject;
+import org.mozilla.javascript.ScriptRuntime;
+import org.mozilla.javascript.Scriptable;
+import org.mozilla.javascript.WrapFactory;
+import org.mozilla.javascript.Wrapper;
+import org.protocoder.apidoc.annotation.APIMethod;
+import org.protocoder.apidoc.annotation.APIParam;
+import org.protocoder.apprunner.api.widgets.JViewInterface;
+
+import android.graphics.Canvas;
+
+/**
+ * Registry of the methods exposed to the scripts by the API classes. Each
+ * class is scanned once for the methods annotated with JavascriptInterface,
+ * APIMethod or APIParam. The same list feeds the documentation.
+ * 
+ * The scripts get the API objects through bindings that call the methods
+ * directly, Rhino only resolves overloads for the few methods with several
+ * signatures of the same length. Classes without annotations, such as the
+ * canvas, get all their public methods bound
+ */
+public class APIRegistry {
+
+	private static final HashMap<Class<?>, Binding> bindings = new HashMap<Class<?>, Binding>();
+	private static final WrapFactory wrapFactory = new APIWrapFactory();
+
+	public static Binding get(Class<?> c) {
+		synchronized (bindings) {
+			Binding binding = bindings.get(c);
+			if (binding == null) {
+				binding = new Binding(c);
+				bindings.put(c, binding);
+			}
+
+			return binding;
+		}
+	}
+
+	public static WrapFactory getWrapFactory() {
+		return wrapFactory;
+	}
+
+	public static boolean isAPIMethod(Method m) {
+		return m.isAnnotationPresent(JavascriptInterface.class) || m.isAnnotationPresent(APIMethod.class)
+				|| m.isAnnotationPresent(APIParam.class);
+	}
+
+	public static class Binding {
+		private final Class<?> cls;
+		private final List<Method> methods = new ArrayList<Method>();
+		private final HashMap<String, Method[]> direct = new HashMap<String, Method[]>();
+		private HashMap<String, APIFunction> functions;
+
+		Binding(Class<?> cls) {
+			this.cls = cls;
+
+			boolean annotated = false;
+			for (Method m : cls.getMethods()) {
+				annotated |= isAPIMethod(m);
+			}
+
+			HashMap<String, List<Method>> byName = new HashMap<String, List<Method>>();
+			for (Method m : cls.getMethods()) {
+				if (Modifier.isStatic(m.getModifiers()) || m.getDeclaringClass() == Object.class) {
+					continue;
+				}
+				if (annotated && !isAPIMethod(m)) {
+					continue;
+				}
+				methods.add(m);
+
+				List<Method> overloads = byName.get(m.getName());
+				if (overloads == null) {
+					overloads = new ArrayList<Method>();
+					byName.put(m.getName(), overloads);
+				}
+				overloads.add(m);
+			}
+
+			// methods are indexed by number of parameters, when two of them
+			// have the same length Rhino has to choose
+			for (Map.Entry<String, List<Method>> entry : byName.entrySet()) {
+				Method[] byArity = new Method[0];
+				boolean ambiguous = false;
+
+				for (Method m : entry.getValue()) {
+					int n = m.getParameterTypes().length;
+					if (m.isVarArgs()) {
+						ambiguous = true;
+						break;
+					}
+					if (n >= byArity.length) {
+						Method[] grown = new Method[n + 1];
+						System.arraycopy(byArity, 0, grown, 0, byArity.length);
+						byArity = grown;
+					}
+					if (byArity[n] != null && !byArity[n].equals(m)) {
+						ambiguous = true;
+						break;
+					}
+					byArity[n] = m;
+				}
+
+				if (!ambiguous) {
+					direct.put(entry.getKey(), byArity);
+				}
+			}
+		}
+
+		public Class<?> getBoundClass() {
+			return cls;
+		}
+
+		/**
+		 * The methods exposed to the scripts
+		 */
+		public List<Method> getMethods() {
+			return methods;
+		}
+
+		/**
+		 * The class as seen by the script, calling it creates a bound object
+		 */
+		public NativeJavaClass createClass(Scriptable scope) {
+			return new APIClass(scope, this);
+		}
+
+		public Scriptable wrap(Scriptable scope, Object instance) {
+			return new APIObject(scope, instance, this);
+		}
+
+		synchronized APIFunction getFunction(String name) {
+			if (functions == null) {
+				// the functions are created once and shared by every object
+				// and every run, so they belong to the shared scope and not
+				// to the scope of the script that asked first
+				functions = new HashMap<String, APIFunction>();
+				Scriptable top = AppRunnerInterpreter.getSharedScope(Context.getCurrentContext());
+				Iterator<Map.Entry<String, Method[]>> it = direct.entrySet().iterator();
+				while (it.hasNext()) {
+					Map.Entry<String, Method[]> entry = it.next();
+					APIFunction f = new APIFunction(entry.getKey(), entry.getValue());
+					ScriptRuntime.setFunctionProtoAndParent(f, top);
+					functions.put(entry.getKey(), f);
+				}
+			}
+
+			return functions.get(name);
+		}
+	}
+
+	static class APIClass extends NativeJavaClass {
+		private static final long serialVersionUID = 1L;
+		private final Binding binding;
+
+		APIClass(Scriptable scope, Binding binding) {
+			super(scope, binding.getBoundClass());
+			this.binding = binding;
+		}
+
+		@Override
+		public Scriptable construct(Context cx, Scriptable scope, Object[] args) {
+			Scriptable obj = super.construct(cx, scope, args);
+			if (obj instanceof Wrapper) {
+				return binding.wrap(scope, ((Wrapper) obj).unwrap());
+			}
+
+			return obj;
+		}
+	}
+
+	/**
+	 * API object, bound methods are returned before looking at the Java
+	 * members so fields and the rest of the methods work as usual
+	 */
+	static class APIObject extends NativeJavaObject {
+		private static final long serialVersionUID = 1L;
+		private final transient Binding binding;
+
+		APIObject(Scriptable scope, Object instance, Binding binding) {
+			super(scope, instance, binding.getBoundClass());
+			this.binding = binding;
+		}
+
+		@Override
+		public Object get(String name, Scriptable start) {
+			APIFunction f = binding.getFunction(name);
+			if (f != null) {
+				return f;
+			}
+
+			return super.get(name, start);
+		}
+
+		/**
+		 * The member as Rhino resolves it, without the bindings
+		 */
+		Object getJavaMember(String name) {
+			return super.get(name, this);
+		}
+
+		@Override
+		public String getClassName() {
+			return binding.getBoundClass().getSimpleName();
+		}
+	}
+
+	static class APIFunction extends BaseFunction {
+		private static final long serialVersionUID = 1L;
+		private final String name;
+		private final transient Method[] byArity;
+
+		APIFunction(String name, Method[] byArity) {
+			this.name = name;
+			this.byArity = byArity;
+		}
+
+		@Override
+		public String getFunctionName() {
+			return name;
+		}
+
+		@Override
+		public int getArity() {
+			return byArity.length - 1;
+		}
+
+		@Override
+		public Object call(Context cx, Scriptable scope, Scriptable thisObj, Object[] args) {
+			if (!(thisObj instanceof Wrapper)) {
+				throw ScriptRuntime.typeError("Method " + name + " called on an incompatible object");
+			}
+
+			Method m = args.length < byArity.length ? byArity[args.length] : null;
+			if (m == null) {
+				// other overloads are left to Rhino
+				Object member = thisObj instanceof APIObject ? ((APIObject) thisObj).getJavaMember(name) : null;
+				if (member instanceof Function) {
+					return ((Function) member).call(cx, scope, thisObj, args);
+				}
+				throw ScriptRuntime.typeError("Can't find method " + name + " with " + args.length + " arguments");
+			}
+
+			Class<?>[] types = m.getParameterTypes();
+			Object[] javaArgs = new Object[args.length];
+			for (int i = 0; i < args.length; i++) {
+				javaArgs[i] = Context.jsToJava(args[i], types[i]);
+			}
+
+			Object result;
+			try {
+				result = m.invoke(((Wrapper) thisObj).unwrap(), javaArgs);
+			} catch (InvocationTargetException e) {
+				throw Context.throwAsScriptRuntimeEx(e.getTargetException());
+			} catch (IllegalAccessException e) {
+				throw Context.throwAsScriptRuntimeEx(e);
+			}
+
+			Class<?> returnType = m.getReturnType();
+			if (returnType == Void.TYPE) {
+				return Context.getUndefinedValue();
+			}
+
+			return cx.getWrapFactory().wrap(cx, scope, result, returnType);
+		}
+	}
+
+	/**
+	 * Binds the objects returned by the API calls, such as the dashboard
+	 * widgets or the canvas, the rest are wrapped as usual
+	 */
+	static class APIWrapFactory extends WrapFactory {
+
+		@Override
+		public Scriptable wrapAsJavaObject(Context cx, Scriptable scope, Object javaObject, Class<?> staticType) {
+			if (javaObject instanceof JInterface || javaObject instanceof JViewInterface
+					|| javaObject instanceof Canvas) {
+				return get(javaObject.getClass()).wrap(scope, javaObject);
+			}
+
+			return super.wrapAsJavaObject(cx, scope, javaObject, staticType);
+		}
+	}
+
+}
@@ -28,6 +28,7 @@
 
 package org.protocoder.apprunner;
 
+import java.io.File;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
 
@@ -50,6 +51,7 @@ import org.protocoder.apprunner.api.JProtocoder;
 import org.protocoder.apprunner.api.JSensors;
 import org.protocoder.apprunner.api.JUI;
 import org.protocoder.apprunner.api.JUtil;
+import org.protocoder.apprunner.api.dashboard.DashboardState;
 import org.protocoder.base.BaseActivity;
 import org.protocoder.events.Events;
 import org.protocoder.events.Events.ProjectEvent;
@@ -166,6 +168,8 @@ public class AppRunnerActivity extends BaseActivity {
 			Log.d(TAG, "cannot start websocket server");
 			e.printStackTrace();
 		}
+		// widgets of the previous script are gone
+		DashboardState.get(this).clear();
 
 		interp.createInterpreter();
 		interp.addListener(new InterpreterInfo() {
@@ -204,6 +208,10 @@ public class AppRunnerActivity extends BaseActivity {
 			AppRunnerSettings.get().project = currentProject;
 			String script = ProjectManager.getInstance().getCode(currentProject);
 
+			if (AppRunnerSettings.get().persistScriptCache) {
+				interp.setScriptCacheDir(new File(getCacheDir(), "scripts" + File.separator + projectName));
+			}
+
 			// wake up if intent says so
 			if (wakeUpScreen) {
 				final Window win = getWindow();
@@ -215,7 +223,7 @@ public class AppRunnerActivity extends BaseActivity {
 			}
 
 			// loading the libraries
-			interp.eval(AppRunnerInterpreter.scriptPrefix);
+			interp.eval(AppRunnerInterpreter.getScriptPrefix());
 
 			// run the script
 			if (null != script) {
@@ -259,10 +267,15 @@ public class AppRunnerActivity extends BaseActivity {
 		}
 	}
 
+	public void onEventMainThread(Events.ProfilerEvent evt) {
+		interp.setProfiling(evt.isEnabled());
+	}
+
 	public void onEventMainThread(Events.ExecuteCodeEvent evt) {
 		Log.d(TAG, "event -> " + evt.getCode());
 
-		interp.eval(evt.getCode());
+		// no need to wait for the result, the errors are reported
+		interp.evalAsync(evt.getCode());
 
 	}
 
@@ -345,6 +358,7 @@ public class AppRunnerActivity extends BaseActivity {
 	public void onDestroy() {
 		super.onDestroy();
 		interp.callJsFunction("onDestroy");
+		interp.destroy();
 
 		interp = null;
 		IDEcommunication.getInstance(this).ready(false);
@@ -28,17 +28,30 @@
 
 package org.protocoder.apprunner;
 
+import java.io.File;
 import java.lang.ref.WeakReference;
-import java.util.concurrent.atomic.AtomicReference;
-
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
 import org.mozilla.javascript.Callable;
 import org.mozilla.javascript.Context;
 import org.mozilla.javascript.ContextFactory;
 import org.mozilla.javascript.ErrorReporter;
 import org.mozilla.javascript.Function;
+import org.mozilla.javascript.NativeJavaPackage;
 import org.mozilla.javascript.RhinoException;
+import org.mozilla.javascript.Script;
 import org.mozilla.javascript.Scriptable;
 import org.mozilla.javascript.ScriptableObject;
+import org.mozilla.javascript.Wrapper;
 import org.mozilla.javascript.commonjs.module.Require;
 
 import android.app.Activity;
@@ -58,8 +71,19 @@ public class AppRunnerInterpreter {
 	public Interpreter interpreter;
 	private WeakReference<AppRunnerActivity> a;
 	private InterpreterInfo listener;
+	private ScriptLoop scriptLoop;
+	private ScriptProfiler profiler;
+
+	// arguments of the coalesced callbacks waiting to be called
+	private final HashMap<String, Object[]> latestArgs = new HashMap<String, Object[]>();
+
+	static final String SCRIPT_PREFIX = "//Prepend text for all scripts \n" + "var window = this; \n";
+
+	// API classes available in every script, keyed by their JavaScript name
+	private static final LinkedHashMap<String, Class<?>> interfaces = new LinkedHashMap<String, Class<?>>();
 
-	static String scriptPrefix = "//Prepend text for all scripts \n" + "var window = this; \n";
+	// standard objects and API classes shared by all the scripts
+	private static ScriptableObject sharedScope;
 
 	static final String SCRIPT_POSTFIX = "//Appends text for all scripts \n" + "function onAndroidPause(){ }  \n"
 			+ "// End of Append Section" + "\n";
@@ -72,40 +96,149 @@ public class AppRunnerInterpreter {
 		return eval(code, "");
 	}
 
+	/**
+	 * Evaluates the code and waits for the result. Called from the script
+	 * thread it runs straight away, other threads should use evalAsync instead
+	 */
 	public Object eval(final String code, final String sourceName) {
-		final AtomicReference<Object> result = new AtomicReference<Object>(null);
+		return waitFor(evalAsync(code, sourceName));
+	}
 
-		a.get().runOnUiThread(new Runnable() {
+	public Future<Object> evalAsync(final String code) {
+		return evalAsync(code, "");
+	}
+
+	public Future<Object> evalAsync(final String code, final String sourceName) {
+		return submit(new ScriptTask() {
 			@Override
-			public void run() {
+			public Object run() throws Throwable {
+				return interpreter.eval(code, sourceName);
+			}
+		});
+	}
+
+	/**
+	 * Queues the task in the thread where the interpreter context lives, the
+	 * UI-thread or the script loop. The returned future holds the result,
+	 * errors are reported and returned as result
+	 */
+	public Future<Object> submit(final ScriptTask task) {
+		FutureTask<Object> future = new FutureTask<Object>(new java.util.concurrent.Callable<Object>() {
+			@Override
+			public Object call() {
 				try {
-					result.set(interpreter.eval(code, sourceName));
+					return task.run();
 				} catch (Throwable e) {
 					reportError(e);
-					result.set(e);
+					return e;
 				}
 			}
 		});
-		while (null == result.get()) {
-			Thread.yield();
+
+		if (!execute(future, null)) {
+			future.cancel(false);
 		}
 
-		return result.get();
+		return future;
 	}
 
 	/**
-	 * This works because method is called from the "onXXX" methods which are
-	 * called in the UI-thread. Thus, no need to use run on UI-thread. TODO:
-	 * Could be a problem if someone calls it from another class, make private
-	 * for now.
+	 * Fire and forget version of submit for callbacks that discard their
+	 * result, the calling thread never waits for the script
 	 */
-	Object callJsFunction(String funName, Object... args) {
-		try {
-			return interpreter.callJsFunction(funName, args);
-		} catch (Throwable e) {
-			reportError(e);
+	public void post(ScriptTask task) {
+		post(task, null);
+	}
+
+	private void post(final ScriptTask task, Runnable onDropped) {
+		final ScriptProfiler profiler = this.profiler;
+		final long queued = null != profiler ? System.nanoTime() : 0;
+
+		execute(new Runnable() {
+			@Override
+			public void run() {
+				if (null != profiler) {
+					profiler.onDequeue(System.nanoTime() - queued);
+				}
+				try {
+					task.run();
+				} catch (Throwable e) {
+					reportError(e);
+				}
+			}
+		}, onDropped);
+	}
+
+	/**
+	 * Runs the task in the script thread, straight away if we are already
+	 * there. Tasks with onDropped can be dropped by the script loop when it
+	 * is behind
+	 */
+	private boolean execute(Runnable task, Runnable onDropped) {
+		if (null != scriptLoop) {
+			if (scriptLoop.isCurrentThread()) {
+				task.run();
+			} else if (null != onDropped) {
+				scriptLoop.postEvent(task, onDropped);
+			} else {
+				scriptLoop.post(task);
+			}
+			return true;
+		}
+
+		AppRunnerActivity activity = a.get();
+		if (null == activity) {
 			return false;
 		}
+		activity.runOnUiThread(task);
+
+		return true;
+	}
+
+	public boolean isScriptThread() {
+		return null != scriptLoop;
+	}
+
+	public ScriptLoop getScriptLoop() {
+		return scriptLoop;
+	}
+
+	private Object waitFor(Future<Object> future) {
+		try {
+			return future.get();
+		} catch (CancellationException e) {
+			return null;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return e;
+		} catch (ExecutionException e) {
+			reportError(e.getCause());
+			return e.getCause();
+		}
+	}
+
+	public interface ScriptTask {
+		Object run() throws Throwable;
+	}
+
+	/**
+	 * Called from the "onXXX" methods in the UI-thread. When the script has
+	 * its own thread the call is queued there without waiting, the loop runs
+	 * them in order so the lifecycle order is kept
+	 */
+	void callJsFunction(final String funName, final Object... args) {
+		ScriptTask task = new ScriptTask() {
+			@Override
+			public Object run() throws Throwable {
+				return interpreter.callJsFunction(funName, args);
+			}
+		};
+
+		if (null != scriptLoop) {
+			submit(task);
+		} else {
+			waitFor(submit(task));
+		}
 	}
 
 	protected void createInterpreter() {
@@ -117,20 +250,115 @@ public class AppRunnerInterpreter {
 		}
 
 		contextFactory.setActivity(a.get());
+		contextFactory.setInterpreter(this);
+
+		if (AppRunnerSettings.get().scriptThread && null == scriptLoop) {
+			scriptLoop = new ScriptLoop(AppRunnerSettings.get().scriptQueueSize);
+			Log.i(TAG, "Running script in its own thread");
+		}
 
 		if (null == interpreter) {
-			// Get the interpreter, if previously created.
-			Object obj = a.get().getLastNonConfigurationInstance();
+			// Get the interpreter, if previously created. The context is bound
+			// to the thread that created it so it can't be reused by a new
+			// script thread
+			Object obj = null;
+			if (null == scriptLoop) {
+				obj = a.get().getLastNonConfigurationInstance();
+			}
 			if (null == obj) {
-				// Create interpreter.
-				interpreter = new Interpreter();
+				// Create interpreter in the script thread.
+				interpreter = (Interpreter) waitFor(submit(new ScriptTask() {
+					@Override
+					public Object run() throws Throwable {
+						return new Interpreter();
+					}
+				}));
 			} else {
 				// Restore interpreter state.
 				interpreter = (Interpreter) obj;
 			}
 		}
 
-		interpreter.setActivity(a.get());
+		final AppRunnerActivity activity = a.get();
+		waitFor(submit(new ScriptTask() {
+			@Override
+			public Object run() throws Throwable {
+				return interpreter.setActivity(activity);
+			}
+		}));
+
+		if (AppRunnerSettings.get().profileScripts) {
+			setProfiling(true);
+		}
+	}
+
+	/**
+	 * Starts or stops sending the profile of the script to the IDE, it can
+	 * be changed while the script runs
+	 */
+	public void setProfiling(boolean enabled) {
+		if (null == interpreter || enabled == (null != profiler)) {
+			return;
+		}
+
+		final ScriptProfiler p = enabled ? new ScriptProfiler(a.get(), AppRunnerSettings.get().profilerInterval)
+				: null;
+		submit(new ScriptTask() {
+			@Override
+			public Object run() throws Throwable {
+				return interpreter.setProfiler(p);
+			}
+		});
+
+		if (null != profiler) {
+			profiler.stop();
+		}
+		if (null != p) {
+			p.start();
+		}
+		profiler = p;
+	}
+
+	/**
+	 * Folder where the compiled project scripts are persisted so relaunching
+	 * an unchanged project skips parsing
+	 */
+	public void setScriptCacheDir(final File dir) {
+		waitFor(submit(new ScriptTask() {
+			@Override
+			public Object run() throws Throwable {
+				interpreter.scriptCacheDir = dir;
+				return dir;
+			}
+		}));
+	}
+
+	public void destroy() {
+		if (null != interpreter) {
+			// in the script thread, after the onDestroy already queued
+			ScriptTask task = new ScriptTask() {
+				@Override
+				public Object run() throws Throwable {
+					interpreter.destroyInterfaces();
+					return null;
+				}
+			};
+
+			if (null != scriptLoop) {
+				submit(task);
+			} else {
+				waitFor(submit(task));
+			}
+		}
+
+		if (null != profiler) {
+			profiler.stop();
+			profiler = null;
+		}
+		if (null != scriptLoop) {
+			scriptLoop.stopLoop();
+			scriptLoop = null;
+		}
 	}
 
 	public interface InterpreterInfo {
@@ -154,6 +382,9 @@ public class AppRunnerInterpreter {
 
 			listener.onError(message);
 
+		} else if (e instanceof ScriptPreemptedError) {
+			message = ((ScriptPreemptedError) e).getMessage();
+			listener.onError(message);
 		} else {
 			message = e.toString();
 		}
@@ -163,109 +394,87 @@ public class AppRunnerInterpreter {
 	}
 
 	public static String preprocess(String code) throws Exception {
-		return preprocessMultiLineStrings(extractCodeFromAppRunnerTags(code));
+		return ScriptPreprocessor.preprocess(code);
 	}
 
-	public static String extractCodeFromAppRunnerTags(String code) throws Exception {
-		String startDelimiter = "DROIDSCRIPT_BEGIN";
-		String stopDelimiter = "DROIDSCRIPT_END";
-
-		// Find start delimiter
-		int start = code.indexOf(startDelimiter, 0);
-		if (-1 == start) {
-			// No delimiter found, return code untouched
-			return code;
-		}
-
-		// Find stop delimiter
-		int stop = code.indexOf(stopDelimiter, start);
-		if (-1 == stop) {
-			// No delimiter found, return code untouched
-			return code;
+	/**
+	 * Registers an API class, the script gets the class and an instance of it
+	 * named after the class without the J, e.g. JUI and ui
+	 */
+	public String addInterface(Class c) {
+		synchronized (interfaces) {
+			interfaces.put(c.getSimpleName(), c);
 		}
 
-		// Extract the code between start and stop.
-		String result = code.substring(start + startDelimiter.length(), stop);
-
-		// Replace escaped characters with plain characters.
-		// TODO: Add more characters here
-		return result.replace("&lt;", "<").replace("&gt;", ">").replace("&quot;", "\"");
+		return instanceDeclaration(c.getSimpleName());
 	}
 
-	public static String preprocessMultiLineStrings(String code) throws Exception {
-		StringBuilder result = new StringBuilder(code.length() + 1000);
+	private static String instanceDeclaration(String clsName) {
+		return "var " + instanceName(clsName) + "=" + clsName + "(Activity); \n";
+	}
 
-		String delimiter = "\"\"\"";
-		int lastStop = 0;
-		while (true) {
-			// Find next multiline delimiter
-			int start = code.indexOf(delimiter, lastStop);
-			if (-1 == start) {
-				// No delimiter found, append rest of the code
-				// to result and break
-				result.append(code.substring(lastStop, code.length()));
-				break;
-			}
+	private static String instanceName(String clsName) {
+		return clsName.substring(1).toLowerCase();
+	}
 
-			// Find terminating delimiter
-			int stop = code.indexOf(delimiter, start + delimiter.length());
-			if (-1 == stop) {
-				// This is an error, throw an exception with error message
-				throw new Exception("Multiline string not terminated");
+	/**
+	 * The classes are already in the shared scope so the prefix only creates
+	 * the API instances for this run
+	 */
+	public static String getScriptPrefix() {
+		StringBuilder prefix = new StringBuilder(SCRIPT_PREFIX);
+		synchronized (interfaces) {
+			for (String clsName : interfaces.keySet()) {
+				prefix.append(instanceDeclaration(clsName));
 			}
-
-			// Append the code from last stop up to the start delimiter
-			result.append(code.substring(lastStop, start));
-
-			// Set new lastStop
-			lastStop = stop + delimiter.length();
-
-			// Append multiline string converted to JavaScript code
-			result.append(convertMultiLineStringToJavaScript(code.substring(start + delimiter.length(), stop)));
 		}
 
-		return result.toString();
+		return prefix.toString();
 	}
 
-	public static String convertMultiLineStringToJavaScript(String s) {
-		StringBuilder result = new StringBuilder(s.length() + 1000);
-
-		char quote = '\"';
-		char newline = '\n';
-		String backslashquote = "\\\"";
-		String concat = "\\n\" + \n\"";
+	/**
+	 * Creates the standard objects and the API class wrappers once per
+	 * process. The standard objects and the scope itself are sealed so a
+	 * script can't change them for the next ones, Java packages are left open
+	 * since Rhino adds them as they are used
+	 */
+	static synchronized Scriptable getSharedScope(Context cx) {
+		if (null == sharedScope) {
+			ScriptableObject scope = cx.initStandardObjects(null, false);
 
-		result.append(quote);
+			for (Object id : scope.getAllIds()) {
+				try {
+					// this also resolves the lazy loaded objects
+					Object value = ScriptableObject.getProperty(scope, id.toString());
+					if (value instanceof ScriptableObject && !(value instanceof NativeJavaPackage)) {
+						((ScriptableObject) value).sealObject();
+
+						Object proto = ScriptableObject.getProperty((Scriptable) value, "prototype");
+						if (proto instanceof ScriptableObject) {
+							((ScriptableObject) proto).sealObject();
+						}
+					}
+				} catch (RuntimeException e) {
+					Log.d(TAG, "cannot seal " + id + " " + e);
+				}
+			}
 
-		for (int i = 0; i < s.length(); ++i) {
-			char c = s.charAt(i);
-			if (c == quote) {
-				result.append(backslashquote);
-			} else if (c == newline) {
-				result.append(concat);
-			} else {
-				result.append(c);
+			synchronized (interfaces) {
+				for (Map.Entry<String, Class<?>> entry : interfaces.entrySet()) {
+					defineInterface(scope, entry.getKey(), entry.getValue());
+				}
 			}
-			// Log.i("Multiline", result.toString());
-		}
 
-		result.append(quote);
+			scope.sealObject();
+			sharedScope = scope;
+		}
 
-		return result.toString();
+		return sharedScope;
 	}
 
-	public String addInterface(Class c) {
-		String pkg = "Packages." + c.getName().toString();
-		String clsName = c.getSimpleName();
-
-		String c1 = "var " + clsName + " = " + pkg + "; \n";
-		String c2 = "var " + clsName.substring(1).toLowerCase() + "=" + clsName + "(Activity); \n";
-
-		String prefix = c1 + c2;
-
-		scriptPrefix += prefix;
-
-		return prefix;
+	private static void defineInterface(ScriptableObject scope, String clsName, Class<?> c) {
+		ScriptableObject.defineProperty(scope, clsName, APIRegistry.get(c).createClass(scope), ScriptableObject.READONLY
+				| ScriptableObject.PERMANENT);
 	}
 
 	public static class Interpreter {
@@ -273,16 +482,49 @@ public class AppRunnerInterpreter {
 		public Scriptable scope;
 		Require require;
 
+		// callbacks compiled once and reused, keyed by the source given by the
+		// script. Only touched from the thread that owns the context
+		HashMap<String, Function> callbacks = new HashMap<String, Function>();
+
+		// where the compiled scripts are persisted, null keeps them in memory
+		File scriptCacheDir;
+
 		public Interpreter() {
 			// Creates and enters a Context. The Context stores information
 			// about the execution environment of a script.
 			context = Context.enter();
 			context.setOptimizationLevel(-1);
 
-			// Initialize the standard objects (Object, Function, etc.)
-			// This must be done before scripts can be executed. Returns
-			// a scope object that we use in later calls.
-			scope = context.initStandardObjects();
+			// The standard objects (Object, Function, etc.) are shared, each
+			// run only needs a new scope on top of them
+			Scriptable shared = getSharedScope(context);
+			scope = context.newObject(shared);
+			scope.setPrototype(shared);
+			scope.setParentScope(null);
+
+			// interfaces registered after the shared scope was sealed
+			synchronized (interfaces) {
+				for (Map.Entry<String, Class<?>> entry : interfaces.entrySet()) {
+					if (!shared.has(entry.getKey(), shared)) {
+						defineInterface((ScriptableObject) scope, entry.getKey(), entry.getValue());
+					}
+				}
+			}
+		}
+
+		/**
+		 * Lets the API instances of this run release what they hold while
+		 * the interpreter can still get their last callbacks
+		 */
+		void destroyInterfaces() {
+			synchronized (interfaces) {
+				for (String clsName : interfaces.keySet()) {
+					Object obj = ScriptableObject.getProperty(scope, instanceName(clsName));
+					if (obj instanceof Wrapper && ((Wrapper) obj).unwrap() instanceof JInterface) {
+						((JInterface) ((Wrapper) obj).unwrap()).destroy();
+					}
+				}
+			}
 		}
 
 		public Interpreter setActivity(Activity activity) {
@@ -296,6 +538,19 @@ public class AppRunnerInterpreter {
 			return this;
 		}
 
+		/**
+		 * Attaches the profiler to the context, null detaches it
+		 */
+		public Interpreter setProfiler(ScriptProfiler profiler) {
+			context.setDebugger(profiler, null);
+			// the watchdog keeps counting instructions without the profiler
+			AppRunnerSettings settings = AppRunnerSettings.get();
+			boolean counting = null != profiler || settings.callbackTimeSlice > 0
+					|| settings.callbackInstructionBudget > 0;
+			context.setInstructionObserverThreshold(counting ? ScriptContextFactory.INSTRUCTION_THRESHOLD : 0);
+			return this;
+		}
+
 		public Interpreter setErrorReporter(ErrorReporter reporter) {
 			context.setErrorReporter(reporter);
 			return this;
@@ -305,9 +560,89 @@ public class AppRunnerInterpreter {
 			Context.exit();
 		}
 
+		/**
+		 * Compiled scripts are reused while the source doesn't change. Only
+		 * named sources are persisted, not the code sent live from the IDE
+		 */
 		public Object eval(String code, String sourceName) throws Throwable {
 			String processedCode = preprocess(code);
-			return context.evaluateString(scope, processedCode, sourceName, 1, null);
+			File persistDir = sourceName.length() > 0 ? scriptCacheDir : null;
+			Script script = ScriptCache.get().getScript(context, processedCode, sourceName, persistDir);
+
+			return script.exec(context, scope);
+		}
+
+		/**
+		 * Returns the compiled function for the callback source. A plain
+		 * statement such as "draw()" is wrapped in a function
+		 */
+		public Function getCallback(String fn) {
+			Function f = callbacks.get(fn);
+			if (f == null) {
+				String source = fn.trim();
+				if (!source.startsWith("function")) {
+					source = "function () { " + source + "\n}";
+				}
+				f = context.compileFunction(scope, source, "callback", 1, null);
+				callbacks.put(fn, f);
+			}
+
+			return f;
+		}
+
+		/**
+		 * Calls a callback, the callbacks are the only calls that have a
+		 * budget. The script itself and the lifecycle functions run unlimited
+		 */
+		public Object callFunction(Function f, Object... args) {
+			Object[] jsArgs = new Object[args.length];
+			for (int i = 0; i < args.length; i++) {
+				jsArgs[i] = toJS(args[i]);
+			}
+
+			if (!(context instanceof WatchdogContext)) {
+				return f.call(context, scope, scope, jsArgs);
+			}
+
+			WatchdogContext watchdog = (WatchdogContext) context;
+			boolean limited = watchdog.setLimited(true);
+			if (!limited) {
+				// a callback called from another one shares its budget
+				watchdog.startCall();
+			}
+			try {
+				return f.call(context, scope, scope, jsArgs);
+			} finally {
+				watchdog.setLimited(limited);
+			}
+		}
+
+		/**
+		 * Converts the callback arguments, json data is turned into plain
+		 * JavaScript objects and arrays
+		 */
+		Object toJS(Object o) {
+			if (o instanceof JSONArray) {
+				JSONArray array = (JSONArray) o;
+				Object[] elements = new Object[array.length()];
+				for (int i = 0; i < elements.length; i++) {
+					elements[i] = toJS(array.opt(i));
+				}
+				return context.newArray(scope, elements);
+			} else if (o instanceof JSONObject) {
+				JSONObject json = (JSONObject) o;
+				Scriptable obj = context.newObject(scope);
+				Iterator<?> keys = json.keys();
+				while (keys.hasNext()) {
+					String key = (String) keys.next();
+					ScriptableObject.putProperty(obj, key, toJS(json.opt(key)));
+				}
+				return obj;
+			} else if (o == JSONObject.NULL) {
+				return null;
+			}
+
+			return Context.javaToJS(o, scope);
 		}
 
 		public Object callJsFunction(String funName, Object... args) throws Throwable {
@@ -326,8 +661,12 @@ public class AppRunnerInterpreter {
 	}
 
 	public static class ScriptContextFactory extends ContextFactory {
+		// instructions between each call to observeInstructionCount
+		static final int INSTRUCTION_THRESHOLD = 10000;
+
 		AppRunnerActivity activity;
 		private AppRunnerInterpreter appRunnerInterpreter;
+		private int preemptedCalls;
 
 		ScriptContextFactory(AppRunnerInterpreter appRunnerInterpreter) {
 			this.appRunnerInterpreter = appRunnerInterpreter;
@@ -338,10 +677,41 @@ public class AppRunnerInterpreter {
 			return this;
 		}
 
+		public ScriptContextFactory setInterpreter(AppRunnerInterpreter appRunnerInterpreter) {
+			this.appRunnerInterpreter = appRunnerInterpreter;
+			return this;
+		}
+
+		/**
+		 * Number of calls stopped because they went over their budget
+		 */
+		public int getPreemptedCalls() {
+			return preemptedCalls;
+		}
+
+		@Override
+		protected Context makeContext() {
+			WatchdogContext cx = new WatchdogContext(this);
+			cx.setWrapFactory(APIRegistry.getWrapFactory());
+			AppRunnerSettings settings = AppRunnerSettings.get();
+			if (settings.callbackTimeSlice > 0 || settings.callbackInstructionBudget > 0) {
+				cx.setInstructionObserverThreshold(INSTRUCTION_THRESHOLD);
+			}
+
+			return cx;
+		}
+
 		@Override
 		protected Object doTopCall(Callable callable, Context cx, Scriptable scope, Scriptable thisObj, Object[] args) {
 			try {
 				return super.doTopCall(callable, cx, scope, thisObj, args);
+			} catch (ScriptPreemptedError e) {
+				preemptedCalls++;
+				Log.i(TAG, e.getMessage() + " (" + preemptedCalls + " preempted calls)");
+				if (null != activity) {
+					appRunnerInterpreter.reportError(e);
+				}
+				return e;
 			} catch (Throwable e) {
 				Log.i(TAG, "ContextFactory catched error: " + e);
 				if (null != activity) {
@@ -350,36 +720,142 @@ public class AppRunnerInterpreter {
 				return e;
 			}
 		}
+
+		@Override
+		protected void observeInstructionCount(Context cx, int instructionCount) {
+			Object debugger = cx.getDebugger();
+			if (debugger instanceof ScriptProfiler) {
+				((ScriptProfiler) debugger).onInstructions(instructionCount);
+			}
+
+			if (cx instanceof WatchdogContext) {
+				((WatchdogContext) cx).check(instructionCount);
+			}
+		}
 	}
 
-	public <T> void callback(String fn, T... args) {
+	/**
+	 * Context that keeps the budget of the running call
+	 */
+	static class WatchdogContext extends Context {
+		private long start;
+		private long instructions;
+		private boolean limited;
 
-		try {
-			// c.get().interpreter.callJsFunction(fn,"");
-			String f1 = fn;
-			boolean firstarg = true;
-
-			if (fn.contains("function")) {
-				f1 = "var fn = " + fn + "\n fn(";
-				for (T t : args) {
-					if (firstarg) {
-						firstarg = false;
-					} else {
-						f1 = f1 + ",";
-					}
+		WatchdogContext(ContextFactory factory) {
+			super(factory);
+		}
 
-					f1 = f1 + t;
-				}
+		void startCall() {
+			start = System.currentTimeMillis();
+			instructions = 0;
+		}
+
+		/**
+		 * Returns the previous value so nested calls can restore it
+		 */
+		boolean setLimited(boolean limited) {
+			boolean previous = this.limited;
+			this.limited = limited;
+			return previous;
+		}
+
+		void check(int count) {
+			if (!limited) {
+				return;
+			}
+
+			AppRunnerSettings settings = AppRunnerSettings.get();
+			instructions += count;
+
+			if (settings.callbackInstructionBudget > 0 && instructions > settings.callbackInstructionBudget) {
+				throw new ScriptPreemptedError("Script stopped after " + instructions + " instructions");
+			}
 
-				f1 = f1 + ");";
+			long elapsed = System.currentTimeMillis() - start;
+			if (settings.callbackTimeSlice > 0 && elapsed > settings.callbackTimeSlice) {
+				throw new ScriptPreemptedError("Script stopped after running for " + elapsed + " ms");
 			}
-			a.get().interp.eval(f1);
+		}
+	}
 
-		} catch (Throwable e) {
+	/**
+	 * Thrown from the instruction observer, it is an Error so the script
+	 * can't catch it
+	 */
+	public static class ScriptPreemptedError extends Error {
+		private static final long serialVersionUID = 1L;
 
-			// TODO
+		public ScriptPreemptedError(String message) {
+			super(message);
 		}
+	}
 
+	/**
+	 * Calls a function handed over by the script. The function is compiled the
+	 * first time and the arguments are passed as they are, strings don't need
+	 * to be quoted. The call is queued and the calling thread doesn't wait,
+	 * it is never dropped so clicks or messages are not lost
+	 */
+	public <T> void callback(final String fn, final T... args) {
+		if (null == fn) {
+			return;
+		}
+
+		post(new ScriptTask() {
+			@Override
+			public Object run() throws Throwable {
+				return interpreter.callFunction(interpreter.getCallback(fn), args);
+			}
+		});
+	}
+
+	/**
+	 * For data where every value counts, same as callback
+	 */
+	public <T> void callbackAll(final String fn, final T... args) {
+		callback(fn, args);
+	}
+
+	/**
+	 * Same as callback but for sources such as sensors where only the last
+	 * value matters. If a call is still waiting its arguments are replaced
+	 * instead of queuing another one. These are the only calls the script
+	 * loop drops when it is behind, the next value queues a new one
+	 */
+	public <T> void callbackLatest(final String fn, final T... args) {
+		if (null == fn) {
+			return;
+		}
+
+		synchronized (latestArgs) {
+			boolean waiting = latestArgs.containsKey(fn);
+			latestArgs.put(fn, args);
+			if (waiting) {
+				return;
+			}
+		}
+
+		post(new ScriptTask() {
+			@Override
+			public Object run() throws Throwable {
+				Object[] latest;
+				synchronized (latestArgs) {
+					latest = latestArgs.remove(fn);
+				}
+				if (null == latest) {
+					return null;
+				}
+				return interpreter.callFunction(interpreter.getCallback(fn), latest);
+			}
+		}, new Runnable() {
+			@Override
+			public void run() {
+				synchronized (latestArgs) {
+					latestArgs.remove(fn);
+				}
+			}
+		});
 	}
 
 }
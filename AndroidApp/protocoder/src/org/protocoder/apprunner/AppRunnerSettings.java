@@ -43,4 +43,27 @@ public class AppRunnerSettings {
 
 	public Project project;
 
+	// run the script in its own thread instead of the UI-thread. Only the
+	// ui builders hop to the UI-thread, views changed straight from the
+	// script (button.setText...) throw CalledFromWrongThreadException so it
+	// stays off for scripts that touch their views
+	public boolean scriptThread = false;
+	// sensor events waiting for the script thread before the oldest is dropped
+	public int scriptQueueSize = 64;
+	// keep the compiled scripts between launches
+	public boolean persistScriptCache = true;
+	// stream the time spent in each script function to the IDE, the IDE
+	// turns it on and off with the profile_scripts command
+	public boolean profileScripts = false;
+	public int profilerInterval = 1000;
+	// samples of the dashboard plots are sent together this often, in ms
+	public int plotInterval = 100;
+	// changes of the dashboard widgets are merged and sent this often, in ms
+	public int dashboardInterval = 33;
+	// limits for each callback into the script, over them the call is
+	// stopped. The script itself and the lifecycle functions are never
+	// limited. 0 disables the limit
+	public int callbackTimeSlice = 0;
+	public long callbackInstructionBudget = 0;
+
 }
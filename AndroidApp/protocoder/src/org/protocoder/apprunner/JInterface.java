@@ -46,6 +46,21 @@ public class JInterface {
 		a.get().interp.callback(fn, args);
 	}
 
+	/**
+	 * For high rate sources, only the latest values are kept while the script
+	 * is busy
+	 */
+	public <T> void callbackLatest(String fn, T... args) {
+		a.get().interp.callbackLatest(fn, args);
+	}
+
+	/**
+	 * Every call is kept, for batches of data that can't be lost
+	 */
+	public <T> void callbackAll(String fn, T... args) {
+		a.get().interp.callbackAll(fn, args);
+	}
+
 	public void destroy() {
 	}
 
@@ -0,0 +1,209 @@
+/*
+ * Protocoder 
+ * A prototyping platform for Android devices 
+ * 
+ * Victor Diaz Barrales victormdb@gmail.com
+ *
+ * Copyright (C) 2013 Motorola Mobility LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions: 
+ * 
+ * The above copyright notice and this permission notice shall be included in all 
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN 
+ * THE SOFTWARE.
+ * 
+ */
+
+package org.protocoder.apprunner;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.Script;
+import org.protocoder.utils.StrUtils;
+
+import android.util.Log;
+
+/**
+ * Keeps the compiled scripts so an unchanged source is never parsed twice.
+ * Scripts are keyed by the hash of the preprocessed source, they live in
+ * memory and can be persisted in a folder per project
+ */
+public class ScriptCache {
+
+	private static final String TAG = "ScriptCache";
+	private static final int MAX_SCRIPTS = 16;
+
+	private static ScriptCache instance;
+
+	private final LinkedHashMap<String, Script> scripts = new LinkedHashMap<String, Script>(MAX_SCRIPTS, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Script> eldest) {
+			return size() > MAX_SCRIPTS;
+		}
+	};
+
+	private int hits = 0;
+	private int misses = 0;
+
+	public static ScriptCache get() {
+		if (instance == null) {
+			instance = new ScriptCache();
+		}
+
+		return instance;
+	}
+
+	/**
+	 * Returns the compiled script for the source, compiling it only when it
+	 * is not in memory or in the persisted folder. The folder can be null
+	 */
+	public Script getScript(Context cx, String source, String sourceName, File persistDir) {
+		String key = StrUtils.sha1(sourceName + "\n" + source);
+
+		synchronized (scripts) {
+			Script script = scripts.get(key);
+			if (script != null) {
+				hits++;
+				return script;
+			}
+		}
+
+		Script script = load(persistDir, key);
+		if (script == null) {
+			script = cx.compileString(source, sourceName, 1, null);
+			save(persistDir, key, script);
+		}
+
+		synchronized (scripts) {
+			misses++;
+			scripts.put(key, script);
+		}
+
+		return script;
+	}
+
+	public void clear() {
+		synchronized (scripts) {
+			scripts.clear();
+		}
+	}
+
+	public int getHits() {
+		return hits;
+	}
+
+	public int getMisses() {
+		return misses;
+	}
+
+	private Script load(File dir, String key) {
+		if (dir == null) {
+			return null;
+		}
+
+		File f = new File(dir, key);
+		if (!f.exists()) {
+			return null;
+		}
+
+		ObjectInputStream in = null;
+		try {
+			in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(f)));
+			Script script = (Script) in.readObject();
+			f.setLastModified(System.currentTimeMillis());
+
+			return script;
+		} catch (Exception e) {
+			// stale or broken file, compile again
+			Log.d(TAG, "cannot load " + f + " " + e);
+			f.delete();
+			return null;
+		} finally {
+			closeQuietly(in);
+		}
+	}
+
+	private void save(File dir, String key, Script script) {
+		if (dir == null || !(script instanceof Serializable)) {
+			return;
+		}
+
+		if (!dir.exists()) {
+			dir.mkdirs();
+		}
+		trim(dir);
+
+		File tmp = new File(dir, key + ".tmp");
+		ObjectOutputStream out = null;
+		try {
+			out = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+			out.writeObject(script);
+			out.close();
+			out = null;
+			tmp.renameTo(new File(dir, key));
+		} catch (IOException e) {
+			Log.d(TAG, "cannot persist script " + e);
+			tmp.delete();
+		} finally {
+			closeQuietly(out);
+		}
+	}
+
+	/**
+	 * Removes the least recently used files so the folder doesn't grow with
+	 * every version of the script
+	 */
+	private void trim(File dir) {
+		File[] files = dir.listFiles();
+		if (files == null || files.length < MAX_SCRIPTS) {
+			return;
+		}
+
+		Arrays.sort(files, new Comparator<File>() {
+			@Override
+			public int compare(File f1, File f2) {
+				long diff = f1.lastModified() - f2.lastModified();
+				return diff < 0 ? -1 : (diff > 0 ? 1 : 0);
+			}
+		});
+
+		for (int i = 0; i <= files.length - MAX_SCRIPTS; i++) {
+			files[i].delete();
+		}
+	}
+
+	private void closeQuietly(java.io.Closeable c) {
+		if (c != null) {
+			try {
+				c.close();
+			} catch (IOException e) {
+			}
+		}
+	}
+
+}
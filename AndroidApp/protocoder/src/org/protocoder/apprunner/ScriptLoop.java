@@ -0,0 +1,143 @@
+/*
+ * Protocoder 
+ * A prototyping platform for Android devices 
+ * 
+ * Victor Diaz Barrales victormdb@gmail.com
+ *
+ * Copyright (C) 2013 Motorola Mobility LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions: 
+ * 
+ * The above copyright notice and this permission notice shall be included in all 
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN 
+ * THE SOFTWARE.
+ * 
+ */
+
+package org.protocoder.apprunner;
+
+import java.util.ArrayDeque;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.util.Log;
+
+/**
+ * Event loop that runs the script in its own thread so heavy callbacks don't
+ * block the UI. Events of sources where only the latest value matters are
+ * bounded, when the script can't keep up the oldest of them is dropped. Any
+ * other task is always run
+ */
+public class ScriptLoop extends HandlerThread {
+
+	private static final String TAG = "ScriptLoop";
+
+	private final int capacity;
+	private final ArrayDeque<Event> pendingEvents = new ArrayDeque<Event>();
+	private final Handler handler;
+	private int dropped = 0;
+
+	public ScriptLoop(int capacity) {
+		super(TAG);
+		this.capacity = capacity;
+
+		start();
+		handler = new Handler(getLooper());
+	}
+
+	public boolean isCurrentThread() {
+		return Thread.currentThread() == this;
+	}
+
+	public void post(Runnable task) {
+		handler.post(task);
+	}
+
+	/**
+	 * Posts a task that can be dropped when the script is behind, onDropped
+	 * is called instead of the task in that case
+	 */
+	public void postEvent(Runnable task, Runnable onDropped) {
+		Event event = new Event(task, onDropped);
+		Event oldest = null;
+
+		synchronized (pendingEvents) {
+			if (pendingEvents.size() >= capacity) {
+				oldest = pendingEvents.poll();
+				handler.removeCallbacks(oldest);
+				dropped++;
+				if (dropped % capacity == 1) {
+					Log.d(TAG, "script is behind, dropped " + dropped + " events");
+				}
+			}
+			pendingEvents.add(event);
+		}
+		handler.post(event);
+
+		if (null != oldest && null != oldest.onDropped) {
+			oldest.onDropped.run();
+		}
+	}
+
+	private class Event implements Runnable {
+		final Runnable task;
+		final Runnable onDropped;
+
+		Event(Runnable task, Runnable onDropped) {
+			this.task = task;
+			this.onDropped = onDropped;
+		}
+
+		@Override
+		public void run() {
+			synchronized (pendingEvents) {
+				pendingEvents.remove(this);
+			}
+			task.run();
+		}
+	}
+
+	public int getPendingEvents() {
+		synchronized (pendingEvents) {
+			return pendingEvents.size();
+		}
+	}
+
+	public int getDroppedEvents() {
+		synchronized (pendingEvents) {
+			return dropped;
+		}
+	}
+
+	/**
+	 * Drops the pending events and quits once the tasks already posted, such
+	 * as onDestroy, are done
+	 */
+	public void stopLoop() {
+		synchronized (pendingEvents) {
+			for (Event event : pendingEvents) {
+				handler.removeCallbacks(event);
+			}
+			pendingEvents.clear();
+		}
+		handler.post(new Runnable() {
+			@Override
+			public void run() {
+				quit();
+			}
+		});
+	}
+
+}
@@ -0,0 +1,178 @@
+/*
+ * Protocoder 
+ * A prototyping platform for Android devices 
+ * 
+ * Victor Diaz Barrales victormdb@gmail.com
+ *
+ * Copyright (C) 2013 Motorola Mobility LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions: 
+ * 
+ * The above copyright notice and this permission notice shall be included in all 
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN 
+ * THE SOFTWARE.
+ * 
+ */
+
+package org.protocoder.apprunner;
+
+/**
+ * Turns the source given by the user into plain JavaScript in a single scan.
+ * It extracts the code between the DROIDSCRIPT_BEGIN / DROIDSCRIPT_END tags
+ * decoding the html entities, and converts the """ multiline strings.
+ * 
+ * The last results are cached so the same source is never processed twice
+ */
+public class ScriptPreprocessor {
+
+	static final String START_DELIMITER = "DROIDSCRIPT_BEGIN";
+	static final String STOP_DELIMITER = "DROIDSCRIPT_END";
+
+	private static final String[] ENTITIES = { "&lt;", "&gt;", "&quot;", "&amp;" };
+	private static final char[] ENTITY_CHARS = { '<', '>', '\"', '&' };
+
+	private static final int CACHE_SIZE = 8;
+	private static final String[] cachedInput = new String[CACHE_SIZE];
+	private static final String[] cachedOutput = new String[CACHE_SIZE];
+	private static int cacheNext = 0;
+
+	private final StringBuilder out;
+	private boolean inMultiLineString = false;
+	private int quotes = 0;
+
+	private ScriptPreprocessor(int capacity) {
+		out = new StringBuilder(capacity);
+	}
+
+	public static String preprocess(String code) throws Exception {
+		synchronized (cachedInput) {
+			for (int i = 0; i < CACHE_SIZE; i++) {
+				String input = cachedInput[i];
+				// same instance or same content
+				if (input == code || (input != null && input.length() == code.length() && input.equals(code))) {
+					return cachedOutput[i];
+				}
+			}
+		}
+
+		String result = process(code);
+
+		synchronized (cachedInput) {
+			cachedInput[cacheNext] = code;
+			cachedOutput[cacheNext] = result;
+			cacheNext = (cacheNext + 1) % CACHE_SIZE;
+		}
+
+		return result;
+	}
+
+	/**
+	 * Processes the code without looking at the cache
+	 */
+	public static String process(String code) throws Exception {
+		int from = 0;
+		int to = code.length();
+		boolean decodeEntities = false;
+
+		// only the code between the tags is used, if there are no tags the code
+		// is used untouched
+		int start = code.indexOf(START_DELIMITER);
+		if (-1 != start) {
+			int stop = code.indexOf(STOP_DELIMITER, start);
+			if (-1 != stop) {
+				from = start + START_DELIMITER.length();
+				to = stop;
+				decodeEntities = true;
+			}
+		}
+
+		ScriptPreprocessor p = new ScriptPreprocessor(to - from + 64);
+		int i = from;
+		while (i < to) {
+			char c = code.charAt(i);
+			int length = 1;
+
+			// plain code is copied in runs
+			if (c != '&' && c != '\"' && c != '\n' && p.quotes == 0) {
+				int end = i + 1;
+				while (end < to && !isSpecial(code.charAt(end))) {
+					end++;
+				}
+				p.out.append(code, i, end);
+				i = end;
+				continue;
+			}
+
+			if (decodeEntities && c == '&') {
+				for (int e = 0; e < ENTITIES.length; e++) {
+					if (code.startsWith(ENTITIES[e], i) && i + ENTITIES[e].length() <= to) {
+						c = ENTITY_CHARS[e];
+						length = ENTITIES[e].length();
+						break;
+					}
+				}
+			}
+
+			p.next(c);
+			i += length;
+		}
+
+		return p.finish();
+	}
+
+	private static boolean isSpecial(char c) {
+		return c == '&' || c == '\"' || c == '\n';
+	}
+
+	/**
+	 * Three quotes in a row open or close a multiline string. Quotes are kept
+	 * pending until we know they are not part of a delimiter
+	 */
+	private void next(char c) {
+		if (c == '\"') {
+			quotes++;
+			if (quotes == 3) {
+				quotes = 0;
+				inMultiLineString = !inMultiLineString;
+				out.append('\"');
+			}
+			return;
+		}
+
+		flushQuotes();
+
+		if (inMultiLineString && c == '\n') {
+			out.append("\\n\" + \n\"");
+		} else {
+			out.append(c);
+		}
+	}
+
+	private void flushQuotes() {
+		for (; quotes > 0; quotes--) {
+			out.append(inMultiLineString ? "\\\"" : "\"");
+		}
+	}
+
+	private String finish() throws Exception {
+		flushQuotes();
+		if (inMultiLineString) {
+			throw new Exception("Multiline string not terminated");
+		}
+
+		return out.toString();
+	}
+
+}
@@ -0,0 +1,305 @@
+/*
+ * Protocoder 
+ * A prototyping platform for Android devices 
+ * 
+ * Victor Diaz Barrales victormdb@gmail.com
+ *
+ * Copyright (C) 2013 Motorola Mobility LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions: 
+ * 
+ * The above copyright notice and this permission notice shall be included in all 
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN 
+ * THE SOFTWARE.
+ * 
+ */
+
+package org.protocoder.apprunner;
+
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.Scriptable;
+import org.mozilla.javascript.debug.DebugFrame;
+import org.mozilla.javascript.debug.DebuggableScript;
+import org.mozilla.javascript.debug.Debugger;
+import org.protocoder.network.CustomWebsocketServer;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+/**
+ * Records the time spent in each script function using the Rhino debugger
+ * hooks. It is only attached to the context when profiling is enabled, when
+ * it is not Rhino doesn't call anything here.
+ * 
+ * Every interval a snapshot is sent to the IDE with the calls, self and total
+ * time of each function, the stacks in the folded format used by the flame
+ * graph tools ("a;b;c time") and the latency of the queued callbacks. Each
+ * snapshot covers the time since the previous one
+ */
+public class ScriptProfiler implements Debugger {
+
+	private static final String TAG = "ScriptProfiler";
+
+	private final android.content.Context ctx;
+	private final int interval;
+	private Handler handler;
+	private boolean running;
+
+	// only the script thread enters and exits frames, the lock is for the
+	// snapshots
+	private HashMap<DebuggableScript, FunctionStats> functions = new HashMap<DebuggableScript, FunctionStats>();
+	private HashMap<String, long[]> stacks = new HashMap<String, long[]>();
+	private final ArrayList<Frame> frames = new ArrayList<Frame>();
+
+	private long queuedCallbacks;
+	private long queueLatency;
+	private long maxQueueLatency;
+	private long instructions;
+
+	static class FunctionStats {
+		String name;
+		long calls;
+		long selfTime;
+		long totalTime;
+		long instructions;
+		int depth;
+	}
+
+	public ScriptProfiler(android.content.Context ctx, int interval) {
+		this.ctx = ctx;
+		this.interval = interval;
+	}
+
+	public void start() {
+		if (running) {
+			return;
+		}
+		running = true;
+		handler = new Handler(Looper.getMainLooper());
+		handler.postDelayed(sendSnapshot, interval);
+		Log.d(TAG, "profiling scripts every " + interval + " ms");
+	}
+
+	public void stop() {
+		running = false;
+		if (handler != null) {
+			handler.removeCallbacks(sendSnapshot);
+		}
+	}
+
+	private final Runnable sendSnapshot = new Runnable() {
+		@Override
+		public void run() {
+			if (!running) {
+				return;
+			}
+
+			try {
+				CustomWebsocketServer ws = CustomWebsocketServer.getInstance(ctx);
+				if (ws != null) {
+					ws.send(snapshot());
+				}
+			} catch (JSONException e) {
+				e.printStackTrace();
+			} catch (UnknownHostException e) {
+				e.printStackTrace();
+			}
+
+			handler.postDelayed(this, interval);
+		}
+	};
+
+	@Override
+	public void handleCompilationDone(Context cx, DebuggableScript fnOrScript, String source) {
+	}
+
+	@Override
+	public DebugFrame getFrame(Context cx, DebuggableScript fnOrScript) {
+		return new Frame(getStats(fnOrScript));
+	}
+
+	private synchronized FunctionStats getStats(DebuggableScript script) {
+		FunctionStats stats = functions.get(script);
+		if (stats == null) {
+			stats = new FunctionStats();
+			stats.name = nameOf(script);
+			functions.put(script, stats);
+		}
+
+		return stats;
+	}
+
+	private static String nameOf(DebuggableScript script) {
+		String name = script.getFunctionName();
+		if (!script.isFunction()) {
+			name = "(script)";
+		} else if (name == null || name.length() == 0) {
+			name = "(anonymous)";
+		}
+
+		int[] lines = script.getLineNumbers();
+		int line = Integer.MAX_VALUE;
+		for (int l : lines) {
+			line = Math.min(line, l);
+		}
+		String source = script.getSourceName();
+
+		return name + " " + (source == null || source.length() == 0 ? "eval" : source)
+				+ (lines.length > 0 ? ":" + line : "");
+	}
+
+	/**
+	 * Called from the context factory, the instructions are charged to the
+	 * function that is running
+	 */
+	public synchronized void onInstructions(int count) {
+		instructions += count;
+		if (!frames.isEmpty()) {
+			frames.get(frames.size() - 1).stats.instructions += count;
+		}
+	}
+
+	/**
+	 * Time a callback waited in the queue before the script got to it
+	 */
+	public synchronized void onDequeue(long latency) {
+		queuedCallbacks++;
+		queueLatency += latency;
+		maxQueueLatency = Math.max(maxQueueLatency, latency);
+	}
+
+	class Frame implements DebugFrame {
+		final FunctionStats stats;
+		String stack;
+		long start;
+		long childTime;
+
+		Frame(FunctionStats stats) {
+			this.stats = stats;
+		}
+
+		@Override
+		public void onEnter(Context cx, Scriptable activation, Scriptable thisObj, Object[] args) {
+			synchronized (ScriptProfiler.this) {
+				stack = frames.isEmpty() ? stats.name : frames.get(frames.size() - 1).stack + ";" + stats.name;
+				frames.add(this);
+				stats.calls++;
+				stats.depth++;
+			}
+			start = System.nanoTime();
+		}
+
+		@Override
+		public void onExit(Context cx, boolean byThrow, Object resultOrException) {
+			long elapsed = System.nanoTime() - start;
+			long self = elapsed - childTime;
+
+			synchronized (ScriptProfiler.this) {
+				frames.remove(frames.size() - 1);
+				if (!frames.isEmpty()) {
+					frames.get(frames.size() - 1).childTime += elapsed;
+				}
+
+				stats.selfTime += self;
+				// recursive calls are already inside the outer call
+				if (--stats.depth == 0) {
+					stats.totalTime += elapsed;
+				}
+
+				long[] time = stacks.get(stack);
+				if (time == null) {
+					stacks.put(stack, new long[] { self });
+				} else {
+					time[0] += self;
+				}
+			}
+		}
+
+		@Override
+		public void onLineChange(Context cx, int lineNumber) {
+		}
+
+		@Override
+		public void onExceptionThrown(Context cx, Throwable ex) {
+		}
+
+		@Override
+		public void onDebuggerStatement(Context cx) {
+		}
+	}
+
+	/**
+	 * Builds the message for the IDE and starts the next interval, times are
+	 * in microseconds
+	 */
+	public synchronized JSONObject snapshot() throws JSONException {
+		JSONArray functionsJson = new JSONArray();
+		for (FunctionStats stats : functions.values()) {
+			if (stats.calls == 0) {
+				continue;
+			}
+			JSONObject f = new JSONObject();
+			f.put("name", stats.name);
+			f.put("calls", stats.calls);
+			f.put("self", stats.selfTime / 1000);
+			f.put("total", stats.totalTime / 1000);
+			f.put("instructions", stats.instructions);
+			functionsJson.put(f);
+
+			stats.calls = 0;
+			stats.selfTime = 0;
+			stats.totalTime = 0;
+			stats.instructions = 0;
+		}
+
+		StringBuilder folded = new StringBuilder();
+		for (Map.Entry<String, long[]> entry : stacks.entrySet()) {
+			folded.append(entry.getKey()).append(' ').append(entry.getValue()[0] / 1000).append('\n');
+		}
+		stacks.clear();
+
+		JSONObject queue = new JSONObject();
+		queue.put("callbacks", queuedCallbacks);
+		queue.put("latency", queuedCallbacks > 0 ? queueLatency / queuedCallbacks / 1000 : 0);
+		queue.put("maxLatency", maxQueueLatency / 1000);
+		queuedCallbacks = 0;
+		queueLatency = 0;
+		maxQueueLatency = 0;
+
+		JSONObject values = new JSONObject();
+		values.put("functions", functionsJson);
+		values.put("folded", folded.toString());
+		values.put("queue", queue);
+		values.put("instructions", instructions);
+		instructions = 0;
+
+		JSONObject msg = new JSONObject();
+		msg.put("type", "profiler");
+		msg.put("action", "snapshot");
+		msg.put("values", values);
+
+		return msg;
+	}
+
+}
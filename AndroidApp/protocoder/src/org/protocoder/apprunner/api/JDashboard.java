@@ -36,13 +36,13 @@ import org.protocoder.apidoc.annotation.APIMethod;
 import org.protocoder.apidoc.annotation.APIParam;
 import org.protocoder.apprunner.JInterface;
 import org.protocoder.apprunner.JavascriptInterface;
+import org.protocoder.apprunner.api.dashboard.DashboardState;
 import org.protocoder.apprunner.api.dashboard.JDashboardButton;
 import org.protocoder.apprunner.api.dashboard.JDashboardHTML;
 import org.protocoder.apprunner.api.dashboard.JDashboardImage;
 import org.protocoder.apprunner.api.dashboard.JDashboardLabel;
 import org.protocoder.apprunner.api.dashboard.JDashboardPlot;
 import org.protocoder.apprunner.api.dashboard.JDashboardSlider;
-import org.protocoder.network.CustomWebsocketServer;
 
 import android.app.Activity;
 import android.util.Log;
@@ -131,54 +131,23 @@ public class JDashboard extends JInterface {
 	@APIMethod(description = "", example = "")
 	@APIParam(params = { "r", "g", "b", "alpha" })
 	public void setBackgroundColor(int r, int g, int b, float alpha) {
-		JSONObject msg = new JSONObject();
+		JSONObject values = new JSONObject();
 		try {
-			msg.put("type", "widget");
-			msg.put("action", "setBackgroundColor");
-
-			JSONObject values = new JSONObject();
 			values.put("r", r);
 			values.put("g", g);
 			values.put("b", b);
 			values.put("alpha", alpha);
-			msg.put("values", values);
-
 		} catch (JSONException e1) {
 			e1.printStackTrace();
 		}
 
-		try {
-			CustomWebsocketServer ws = CustomWebsocketServer.getInstance(a.get());
-			ws.send(msg);
-		} catch (UnknownHostException e) {
-			e.printStackTrace();
-		}
-
+		DashboardState.get(a.get()).setDashboard("background", values);
 	}
 
 	@JavascriptInterface
 	@APIMethod(description = "", example = "")
 	@APIParam(params = { "boolean" })
 	public void show(boolean b) {
-		JSONObject msg = new JSONObject();
-		try {
-			msg.put("type", "widget");
-			msg.put("action", "showDashboard");
-
-			JSONObject values = new JSONObject();
-			values.put("val", b);
-			msg.put("values", values);
-
-		} catch (JSONException e1) {
-			e1.printStackTrace();
-		}
-
-		try {
-			CustomWebsocketServer ws = CustomWebsocketServer.getInstance(a.get());
-			ws.send(msg);
-		} catch (UnknownHostException e) {
-			e.printStackTrace();
-		}
-
+		DashboardState.get(a.get()).setDashboard("show", b);
 	}
 }
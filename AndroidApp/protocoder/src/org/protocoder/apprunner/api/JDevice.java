@@ -55,7 +55,7 @@ public class JDevice extends JInterface {
 
 			@Override
 			public void onSmsReceived(String number, String msg) {
-				callback(onSmsReceivedfn, number, "\"" + msg + "\"");
+				callback(onSmsReceivedfn, number, msg);
 			}
 		});
 	}
@@ -73,7 +73,7 @@ public class JMedia extends JInterface {
 			@Override
 			public void onNewResult(String text) {
 				Log.d(TAG, "" + text);
-				callback(onVoiceRecognitionfn, "\"" + text + "\"");
+				callback(onVoiceRecognitionfn, text);
 			}
 
 		});
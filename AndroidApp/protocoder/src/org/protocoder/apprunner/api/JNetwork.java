@@ -170,8 +170,7 @@ public class JNetwork extends JInterface {
 					// TODO Auto-generated catch block
 					e.printStackTrace();
 				}
-				// callback(callbackfn, "\"" + msg.getName() + "\"", str);
-				callback(callbackfn, "\"" + msg.getName() + "\"", jsonArray);
+				callback(callbackfn, msg.getName(), jsonArray);
 			}
 
 		});
@@ -204,23 +203,22 @@ public class JNetwork extends JInterface {
 
 			@Override
 			public void onClose(WebSocket arg0, int arg1, String arg2, boolean arg3) {
-				callback(callbackfn, "\"" + "close" + "\"", "", arg0.getRemoteSocketAddress().toString(), "");
+				callback(callbackfn, "close", "", arg0.getRemoteSocketAddress().toString(), "");
 			}
 
 			@Override
 			public void onError(WebSocket arg0, Exception arg1) {
-				callback(callbackfn, "\"" + "error" + "\"", arg0.getRemoteSocketAddress().toString(), "");
+				callback(callbackfn, "error", arg0.getRemoteSocketAddress().toString(), "");
 			}
 
 			@Override
 			public void onMessage(WebSocket arg0, String arg1) {
-				callback(callbackfn, "\"" + "message" + "\"", arg0.getRemoteSocketAddress().toString(), "\"" + arg1
-						+ "\"");
+				callback(callbackfn, "message", arg0.getRemoteSocketAddress().toString(), arg1);
 			}
 
 			@Override
 			public void onOpen(WebSocket arg0, ClientHandshake arg1) {
-				callback(callbackfn, "\"" + "open" + "\"", arg0.getRemoteSocketAddress().toString(), "");
+				callback(callbackfn, "open", arg0.getRemoteSocketAddress().toString(), "");
 			}
 		};
 		websocketServer.start();
@@ -240,12 +238,12 @@ public class JNetwork extends JInterface {
 
 				@Override
 				public void onOpen(ServerHandshake arg0) {
-					callback(callbackfn, "open", "\"" + arg0 + "\"");
+					callback(callbackfn, "open", arg0.toString());
 				}
 
 				@Override
 				public void onMessage(String arg0) {
-					callback(callbackfn, "message", "\"" + arg0 + "\"");
+					callback(callbackfn, "message", arg0);
 				}
 
 				@Override
@@ -259,7 +257,7 @@ public class JNetwork extends JInterface {
 				}
 			};
 		} catch (URISyntaxException e) {
-			callback(callbackfn, "error " + "\"" + e.toString() + "\"");
+			callback(callbackfn, "error", e.toString());
 			e.printStackTrace();
 		}
 		return webSocketClient;
@@ -288,7 +286,7 @@ public class JNetwork extends JInterface {
 
 			@Override
 			public void onDisconnect(int code, String reason) {
-				callback(callbackfn, "disconnect", "\"" + reason + "\"");
+				callback(callbackfn, "disconnect", reason);
 			}
 
 			@Override
@@ -299,7 +297,7 @@ public class JNetwork extends JInterface {
 
 			@Override
 			public void on(String event, JSONArray arguments) {
-				callback(callbackfn, "onmessage", event, "\"" + arguments + "\"");
+				callback(callbackfn, "onmessage", event, arguments);
 
 			}
 		});
@@ -353,7 +351,7 @@ public class JNetwork extends JInterface {
 						response.getEntity().getContent().close();
 						throw new IOException(statusLine.getReasonPhrase());
 					}
-					callback(callbackfn, statusLine.getStatusCode(), "\"" + responseString + "\"");
+					callback(callbackfn, statusLine.getStatusCode(), responseString);
 				} catch (ClientProtocolException e) {
 
 				} catch (IOException e) {
@@ -396,7 +394,7 @@ public class JNetwork extends JInterface {
 
 			@Override
 			public void onDeviceFound(String name, String macAddress, float strength) {
-				callback(onBluetoothfn, "\"" + name + "\"", "\"" + macAddress + "\"", "\"" + strength + "\"");
+				callback(onBluetoothfn, name, macAddress, strength);
 			}
 		});
 
@@ -28,6 +28,8 @@
 
 package org.protocoder.apprunner.api;
 
+import java.util.HashMap;
+
 import org.protocoder.apidoc.annotation.APIMethod;
 import org.protocoder.apidoc.annotation.APIParam;
 import org.protocoder.apprunner.AppRunnerActivity;
@@ -35,6 +37,7 @@ import org.protocoder.apprunner.JInterface;
 import org.protocoder.apprunner.JavascriptInterface;
 import org.protocoder.sensors.AccelerometerManager;
 import org.protocoder.sensors.AccelerometerManager.AccelerometerListener;
+import org.protocoder.sensors.CustomSensorManager;
 import org.protocoder.sensors.GPSManager;
 import org.protocoder.sensors.GPSManager.GPSListener;
 import org.protocoder.sensors.GyroscopeManager;
@@ -50,6 +53,7 @@ import org.protocoder.sensors.PressureManager;
 import org.protocoder.sensors.PressureManager.PressureListener;
 import org.protocoder.sensors.ProximityManager;
 import org.protocoder.sensors.ProximityManager.ProximityListener;
+import org.protocoder.sensors.SensorBatch;
 import org.protocoder.sensors.WhatIsRunning;
 
 import android.location.Location;
@@ -77,6 +81,7 @@ public class JSensors extends JInterface {
 	private MagneticListener magneticListener;
 	private PressureManager pressureManager;
 	private PressureListener pressureListener;
+	private HashMap<String, CustomSensorManager> batchManagers = new HashMap<String, CustomSensorManager>();
 
 	public JSensors(AppRunnerActivity mwmActivity) {
 		super(mwmActivity);
@@ -84,7 +89,7 @@ public class JSensors extends JInterface {
 		((AppRunnerActivity) a.get()).addNFCReadListener(new onNFCListener() {
 			@Override
 			public void onNewTag(String id, String data) {
-				callback(onNFCfn, "\"" + id + "\"", "\"" + data + "\"");
+				callback(onNFCfn, id, data);
 			}
 		});
 
@@ -105,7 +110,7 @@ public class JSensors extends JInterface {
 
 				@Override
 				public void onAccelerometerChanged(float x, float y, float z) {
-					callback(callbackfn, x, y, z);
+					callbackLatest(callbackfn, x, y, z);
 
 				}
 			};
@@ -139,7 +144,7 @@ public class JSensors extends JInterface {
 
 				@Override
 				public void onGyroscopeChanged(float x, float y, float z) {
-					callback(callbackfn, x, y, z);
+					callbackLatest(callbackfn, x, y, z);
 				}
 			};
 			gyroscopeManager.addListener(gyroscopeListener);
@@ -309,7 +314,7 @@ public class JSensors extends JInterface {
 
 			@Override
 			public void onOrientation(float pitch, float roll, float yaw) {
-				callback(callbackfn, pitch, roll, yaw);
+				callbackLatest(callbackfn, pitch, roll, yaw);
 			}
 		};
 		orientationManager.addListener(orientationListener);
@@ -336,7 +341,7 @@ public class JSensors extends JInterface {
 
 			@Override
 			public void onLightChanged(float f) {
-				callback(callbackfn, f);
+				callbackLatest(callbackfn, f);
 			}
 		};
 
@@ -364,7 +369,7 @@ public class JSensors extends JInterface {
 
 			@Override
 			public void onDistanceChanged(float distance) {
-				callback(callbackfn, distance);
+				callbackLatest(callbackfn, distance);
 			}
 		};
 
@@ -391,7 +396,7 @@ public class JSensors extends JInterface {
 
 			@Override
 			public void onMagneticChanged(float f) {
-				callback(callbackfn, f);
+				callbackLatest(callbackfn, f);
 			}
 		};
 
@@ -418,7 +423,7 @@ public class JSensors extends JInterface {
 
 			@Override
 			public void onPressureChanged(float f) {
-				callback(callbackfn, f);
+				callbackLatest(callbackfn, f);
 			}
 		};
 
@@ -435,9 +440,68 @@ public class JSensors extends JInterface {
 		pressureManager.stop();
 	}
 
+	/**
+	 * Batched version of the sensors, the callback gets the values of n
+	 * samples (or of interval ms) in one array and their timestamps in ms
+	 */
+	@JavascriptInterface
+	@APIMethod(description = "receive the samples of a sensor in batches", example = "sensors.startBatch(\"accelerometer\", 32, 100, function(values, timestamps, dimensions) { });")
+	@APIParam(params = { "sensor", "samples", "interval", "function(values, timestamps, dimensions)" })
+	public void startBatch(String sensor, int samples, int interval, final String callbackfn) {
+		stopBatch(sensor);
+
+		CustomSensorManager manager;
+		if (sensor.equals("accelerometer")) {
+			manager = new AccelerometerManager(a.get());
+		} else if (sensor.equals("gyroscope")) {
+			manager = new GyroscopeManager(a.get());
+		} else if (sensor.equals("orientation")) {
+			manager = new OrientationManager(a.get());
+		} else if (sensor.equals("magnetic")) {
+			manager = new MagneticManager(a.get());
+		} else if (sensor.equals("light")) {
+			manager = new LightManager(a.get());
+		} else if (sensor.equals("proximity")) {
+			manager = new ProximityManager(a.get());
+		} else if (sensor.equals("barometer")) {
+			manager = new PressureManager(a.get());
+		} else {
+			Log.d(TAG, "unknown sensor " + sensor);
+			return;
+		}
+
+		manager.setBatch(samples, interval, new SensorBatch.BatchListener() {
+
+			@Override
+			public void onSamples(float[] values, double[] timestamps, int dimensions) {
+				callbackAll(callbackfn, values, timestamps, dimensions);
+			}
+		});
+		manager.start();
+		WhatIsRunning.getInstance().add(manager);
+		batchManagers.put(sensor, manager);
+	}
+
+	@JavascriptInterface
+	@APIMethod(description = "", example = "")
+	@APIParam(params = { "sensor" })
+	public void stopBatch(String sensor) {
+		CustomSensorManager manager = batchManagers.remove(sensor);
+		if (manager != null) {
+			manager.stop();
+		}
+	}
+
+	/**
+	 * The batches are stopped while the interpreter is still there, so the
+	 * last samples reach the script
+	 */
 	@Override
 	public void destroy() {
-
+		for (CustomSensorManager manager : batchManagers.values()) {
+			manager.stop();
+		}
+		batchManagers.clear();
 	}
 
 }
@@ -122,64 +122,89 @@ public class JUI extends JUIGeneric {
 	@JavascriptInterface
 	@APIMethod(description = "Creates a button ", example = "ui.button(\"button\"); ")
 	@APIParam(params = { "titleName" })
-	public void setTitle(String title) {
-		if (noActionBarAllowed) {
-			return;
-		}
+	public void setTitle(final String title) {
+		a.get().runOnUiThread(new Runnable() {
+			@Override
+			public void run() {
+				if (noActionBarAllowed) {
+					return;
+				}
 
-		a.get().setActionBar(null, null);
-		a.get().actionBar.setTitle(title);
+				a.get().setActionBar(null, null);
+				a.get().actionBar.setTitle(title);
+			}
+		});
 	}
 
 	@JavascriptInterface
 	@APIMethod(description = " ", example = "")
 	@APIParam(params = { "subtitleName" })
-	public void setSubtitle(String title) {
-		if (noActionBarAllowed) {
-			return;
-		}
+	public void setSubtitle(final String title) {
+		a.get().runOnUiThread(new Runnable() {
+			@Override
+			public void run() {
+				if (noActionBarAllowed) {
+					return;
+				}
 
-		a.get().setActionBar(null, null);
-		a.get().actionBar.setSubtitle(title);
+				a.get().setActionBar(null, null);
+				a.get().actionBar.setSubtitle(title);
+			}
+		});
 	}
 
 	@JavascriptInterface
 	@APIMethod(description = "", example = "")
 	@APIParam(params = { "boolean" })
-	public void showTitleBar(Boolean b) {
-		if (noActionBarAllowed) {
-			return;
-		}
+	public void showTitleBar(final Boolean b) {
+		a.get().runOnUiThread(new Runnable() {
+			@Override
+			public void run() {
+				if (noActionBarAllowed) {
+					return;
+				}
 
-		a.get().setActionBar(null, null);
-		if (b) {
-			a.get().actionBar.show();
-		} else {
-			a.get().actionBar.hide();
-		}
+				a.get().setActionBar(null, null);
+				if (b) {
+					a.get().actionBar.show();
+				} else {
+					a.get().actionBar.hide();
+				}
+			}
+		});
 	}
 
 	@JavascriptInterface
 	@APIMethod(description = "", example = "")
 	@APIParam(params = { "r", "g", "b" })
-	public void setTitleBgColor(int r, int g, int b) {
-		if (noActionBarAllowed) {
-			return;
-		}
-		int c = Color.rgb(r, g, b);
-		a.get().setActionBar(c, null);
+	public void setTitleBgColor(final int r, final int g, final int b) {
+		a.get().runOnUiThread(new Runnable() {
+			@Override
+			public void run() {
+				if (noActionBarAllowed) {
+					return;
+				}
+				int c = Color.rgb(r, g, b);
+				a.get().setActionBar(c, null);
+			}
+		});
 	}
 
 	@JavascriptInterface
 	@APIMethod(description = "", example = "")
 	@APIParam(params = { "r", "g", "b" })
-	public void setTitleTextColor(int r, int g, int b) {
-		if (noActionBarAllowed) {
-			return;
-		}
+	public void setTitleTextColor(final int r, final int g, final int b) {
+		a.get().runOnUiThread(new Runnable() {
+			@Override
+			public void run() {
+				if (noActionBarAllowed) {
+					return;
+				}
 
-		int c = Color.rgb(r, g, b);
-		a.get().setActionBar(null, c);
+				int c = Color.rgb(r, g, b);
+				a.get().setActionBar(null, c);
+			}
+		});
 	}
 
 	@JavascriptInterface
@@ -191,36 +216,61 @@ public class JUI extends JUIGeneric {
 		}
 
 		Bitmap myBitmap = BitmapFactory.decodeFile(AppRunnerSettings.get().project.getStoragePath() + imagePath);
-		Drawable icon = new BitmapDrawable(a.get().getResources(), myBitmap);
+		final Drawable icon = new BitmapDrawable(a.get().getResources(), myBitmap);
 
-		a.get().actionBar.setIcon(icon);
+		a.get().runOnUiThread(new Runnable() {
+			@Override
+			public void run() {
+				a.get().actionBar.setIcon(icon);
+			}
+		});
 	}
 
 	@JavascriptInterface
 	@APIMethod(description = "", example = "")
 	@APIParam(params = { "boolean" })
-	public void showHomeBar(boolean b) {
-		a.get().showHomeBar(b);
+	public void showHomeBar(final boolean b) {
+		a.get().runOnUiThread(new Runnable() {
+			@Override
+			public void run() {
+				a.get().showHomeBar(b);
+			}
+		});
 	}
 
 	@JavascriptInterface
 	@APIMethod(description = "", example = "")
 	public void setFullscreen() {
-		noActionBarAllowed = true;
-		a.get().setFullScreen();
+		a.get().runOnUiThread(new Runnable() {
+			@Override
+			public void run() {
+				noActionBarAllowed = true;
+				a.get().setFullScreen();
+			}
+		});
 	}
 
 	@JavascriptInterface
 	@APIMethod(description = "", example = "")
 	public void setImmersive() {
-		noActionBarAllowed = true;
-		a.get().setImmersive();
+		a.get().runOnUiThread(new Runnable() {
+			@Override
+			public void run() {
+				noActionBarAllowed = true;
+				a.get().setImmersive();
+			}
+		});
 	}
 
 	@JavascriptInterface
 	@APIMethod(description = "", example = "")
 	public void setLightsOut() {
-		a.get().lightsOutMode();
+		a.get().runOnUiThread(new Runnable() {
+			@Override
+			public void run() {
+				a.get().lightsOutMode();
+			}
+		});
 	}
 
 	@JavascriptInterface
@@ -255,105 +305,153 @@ public class JUI extends JUIGeneric {
 	 */
 	@JavascriptInterface
 	@APIParam(params = { "left", "top", "right", "bottom" })
-	public void setPadding(int left, int top, int right, int bottom) {
+	public void setPadding(final int left, final int top, final int right, final int bottom) {
 		initializeLayout();
-		uiAbsoluteLayout.setPadding(left, top, right, bottom);
+		a.get().runOnUiThread(new Runnable() {
+			@Override
+			public void run() {
+				uiAbsoluteLayout.setPadding(left, top, right, bottom);
+			}
+		});
 	}
 
 	@JavascriptInterface
 	@APIParam(params = { "View", "height" })
-	public void resizeView(final View v, int h) {
-		boolean animated = false;
-
-		if (!animated) {
-			v.getLayoutParams().height = h;
-			v.setLayoutParams(v.getLayoutParams());
-		} else {
-
-			int initHeight = v.getLayoutParams().height;
-			// v.setLayoutParams(v.getLayoutParams());
-
-			ValueAnimator anim = ValueAnimator.ofInt(initHeight, h);
-			anim.addUpdateListener(new ValueAnimator.AnimatorUpdateListener() {
-				@Override
-				public void onAnimationUpdate(ValueAnimator valueAnimator) {
-					int val = (Integer) valueAnimator.getAnimatedValue();
-					v.getLayoutParams().height = val;
-					v.setLayoutParams(v.getLayoutParams());
+	public void resizeView(final View v, final int h) {
+		a.get().runOnUiThread(new Runnable() {
+			@Override
+			public void run() {
+				boolean animated = false;
 
+				if (!animated) {
+					v.getLayoutParams().height = h;
+					v.setLayoutParams(v.getLayoutParams());
+				} else {
+
+					int initHeight = v.getLayoutParams().height;
+					// v.setLayoutParams(v.getLayoutParams());
+
+					ValueAnimator anim = ValueAnimator.ofInt(initHeight, h);
+					anim.addUpdateListener(new ValueAnimator.AnimatorUpdateListener() {
+						@Override
+						public void onAnimationUpdate(ValueAnimator valueAnimator) {
+							int val = (Integer) valueAnimator.getAnimatedValue();
+							v.getLayoutParams().height = val;
+							v.setLayoutParams(v.getLayoutParams());
+
+						}
+					});
+					anim.setDuration(200);
+					anim.start();
 				}
-			});
-			anim.setDuration(200);
-			anim.start();
-		}
+			}
+		});
 	}
 
 	@JavascriptInterface
 	@APIParam(params = { "View", "x", "y" })
-	public void move(View v, float x, float y) {
-		v.animate().x(x).setDuration(AppSettings.animSpeed);
-		v.animate().y(y).setDuration(AppSettings.animSpeed);
-
+	public void move(final View v, final float x, final float y) {
+		a.get().runOnUiThread(new Runnable() {
+			@Override
+			public void run() {
+				v.animate().x(x).setDuration(AppSettings.animSpeed);
+				v.animate().y(y).setDuration(AppSettings.animSpeed);
+			}
+		});
 	}
 
 	@JavascriptInterface
 	@APIParam(params = { "View" })
-	public void jump(View v) {
-
-		ValueAnimator w = ObjectAnimator.ofFloat(v, "scaleX", 1f, 0.9f, 1.2f, 1f);
-		w.setDuration(500);
+	public void jump(final View v) {
+		a.get().runOnUiThread(new Runnable() {
+			@Override
+			public void run() {
+				ValueAnimator w = ObjectAnimator.ofFloat(v, "scaleX", 1f, 0.9f, 1.2f, 1f);
+				w.setDuration(500);
 
-		ValueAnimator h = ObjectAnimator.ofFloat(v, "scaleY", 1f, 0.9f, 1.2f, 1f);
-		h.setDuration(500);
+				ValueAnimator h = ObjectAnimator.ofFloat(v, "scaleY", 1f, 0.9f, 1.2f, 1f);
+				h.setDuration(500);
 
-		AnimatorSet animatorSet = new AnimatorSet();
-		animatorSet.play(w).with(h);
-		animatorSet.start();
+				AnimatorSet animatorSet = new AnimatorSet();
+				animatorSet.play(w).with(h);
+				animatorSet.start();
+			}
+		});
 	}
 
 	@JavascriptInterface
 	@APIParam(params = { "View", "num" })
-	public void blink(View v, int num) {
-		ObjectAnimator anim = ObjectAnimator.ofFloat(v, "alpha", 1f, 0f, 1f);
-		anim.setDuration(1000);
-		anim.setInterpolator(new CycleInterpolator(1));
-		anim.setRepeatCount(num);
-		anim.start();
+	public void blink(final View v, final int num) {
+		a.get().runOnUiThread(new Runnable() {
+			@Override
+			public void run() {
+				ObjectAnimator anim = ObjectAnimator.ofFloat(v, "alpha", 1f, 0f, 1f);
+				anim.setDuration(1000);
+				anim.setInterpolator(new CycleInterpolator(1));
+				anim.setRepeatCount(num);
+				anim.start();
+			}
+		});
 	}
 
 	@JavascriptInterface
 	@APIParam(params = { "View", "degrees" })
-	public void rotate(View v, float x) {
-		v.animate().rotation(x).setDuration(AppSettings.animSpeed);
+	public void rotate(final View v, final float x) {
+		a.get().runOnUiThread(new Runnable() {
+			@Override
+			public void run() {
+				v.animate().rotation(x).setDuration(AppSettings.animSpeed);
+			}
+		});
 	}
 
 	@JavascriptInterface
 	@APIParam(params = { "View", "degrees", "degrees", "degrees" })
-	public void rotate(View v, float x, float y, float z) {
-		v.animate().rotation(x).setDuration(AppSettings.animSpeed);
-		// looks weird but it works more consistent
-		v.animate().rotationX(y).setDuration(AppSettings.animSpeed);
-		v.animate().rotationY(z).setDuration(AppSettings.animSpeed);
+	public void rotate(final View v, final float x, final float y, final float z) {
+		a.get().runOnUiThread(new Runnable() {
+			@Override
+			public void run() {
+				v.animate().rotation(x).setDuration(AppSettings.animSpeed);
+				// looks weird but it works more consistent
+				v.animate().rotationX(y).setDuration(AppSettings.animSpeed);
+				v.animate().rotationY(z).setDuration(AppSettings.animSpeed);
+			}
+		});
 	}
 
 	@JavascriptInterface
 	@APIParam(params = { "View", "float" })
-	public void alpha(View v, float deg) {
-		v.animate().alpha(deg).setDuration(AppSettings.animSpeed);
+	public void alpha(final View v, final float deg) {
+		a.get().runOnUiThread(new Runnable() {
+			@Override
+			public void run() {
+				v.animate().alpha(deg).setDuration(AppSettings.animSpeed);
+			}
+		});
 	}
 
 	@JavascriptInterface
 	@APIParam(params = { "View", "float" })
-	public void scale(View v, float x, float y) {
-		v.animate().scaleX(x).setDuration(AppSettings.animSpeed);
-		v.animate().scaleY(y).setDuration(AppSettings.animSpeed);
+	public void scale(final View v, final float x, final float y) {
+		a.get().runOnUiThread(new Runnable() {
+			@Override
+			public void run() {
+				v.animate().scaleX(x).setDuration(AppSettings.animSpeed);
+				v.animate().scaleY(y).setDuration(AppSettings.animSpeed);
+			}
+		});
 	}
 
 	@JavascriptInterface
 	@APIParam(params = { "View", "float" })
-	public void scaleBy(View v, float x, float y) {
-		v.animate().scaleXBy(x).setDuration(AppSettings.animSpeed);
-		v.animate().scaleYBy(y).setDuration(AppSettings.animSpeed);
+	public void scaleBy(final View v, final float x, final float y) {
+		a.get().runOnUiThread(new Runnable() {
+			@Override
+			public void run() {
+				v.animate().scaleXBy(x).setDuration(AppSettings.animSpeed);
+				v.animate().scaleYBy(y).setDuration(AppSettings.animSpeed);
+			}
+		});
 	}
 
 	/**
@@ -369,21 +467,30 @@ public class JUI extends JUIGeneric {
 	 * 
 	 */
 	@APIParam(params = { "r", "g", "b" })
-	public void backgroundColor(int red, int green, int blue) {
+	public void backgroundColor(final int red, final int green, final int blue) {
 		initializeLayout();
-		holderLayout.setBackgroundColor(Color.rgb(red, green, blue));
+		a.get().runOnUiThread(new Runnable() {
+			@Override
+			public void run() {
+				holderLayout.setBackgroundColor(Color.rgb(red, green, blue));
+			}
+		});
 	}
 
 	/**
 	 * Set a background image
 	 */
 	@APIParam(params = { "imageName" })
-	public void backgroundImage(String imagePath) {
+	public void backgroundImage(final String imagePath) {
 		initializeLayout();
-		// Add the bg image asynchronously
-		new SetBgImageTask(bgImageView).execute(AppRunnerSettings.get().project.getStoragePath() + File.separator
-				+ imagePath);
-
+		a.get().runOnUiThread(new Runnable() {
+			@Override
+			public void run() {
+				// Add the bg image asynchronously
+				new SetBgImageTask(bgImageView).execute(AppRunnerSettings.get().project.getStoragePath()
+						+ File.separator + imagePath);
+			}
+		});
 	}
 
 	/**
@@ -949,7 +1056,7 @@ public class JUI extends JUIGeneric {
 	 */
 	@APIParam(params = { "title", "function(boolean)" })
 	public void yesnoDialog(String title, final String callbackfn) {
-		AlertDialog.Builder builder = new AlertDialog.Builder(a.get());
+		final AlertDialog.Builder builder = new AlertDialog.Builder(a.get());
 		builder.setTitle(title);
 
 		// Set up the buttons
@@ -967,7 +1074,12 @@ public class JUI extends JUIGeneric {
 			}
 		});
 
-		builder.show();
+		a.get().runOnUiThread(new Runnable() {
+			@Override
+			public void run() {
+				builder.show();
+			}
+		});
 	}
 
 	/**
@@ -979,7 +1091,7 @@ public class JUI extends JUIGeneric {
 	 */
 	@APIParam(params = { "title", "function(text)" })
 	public void inputDialog(String title, final String callbackfn) {
-		AlertDialog.Builder builder = new AlertDialog.Builder(a.get());
+		final AlertDialog.Builder builder = new AlertDialog.Builder(a.get());
 		builder.setTitle(title);
 
 		final EditText input = new EditText(a.get());
@@ -992,7 +1104,7 @@ public class JUI extends JUIGeneric {
 			@Override
 			public void onClick(DialogInterface dialog, int which) {
 				String text = input.getText().toString();
-				callback(callbackfn, "\"" + text + "\"");
+				callback(callbackfn, text);
 			}
 		});
 		builder.setNegativeButton("Cancel", new DialogInterface.OnClickListener() {
@@ -1002,7 +1114,12 @@ public class JUI extends JUIGeneric {
 			}
 		});
 
-		builder.show();
+		a.get().runOnUiThread(new Runnable() {
+			@Override
+			public void run() {
+				builder.show();
+			}
+		});
 	}
 
 	/**
@@ -1015,7 +1132,7 @@ public class JUI extends JUIGeneric {
 	 */
 	@APIParam(params = { "title", "arrayStrings", "function(text)" })
 	public void choiceDialog(String title, final String[] choices, final String callbackfn) {
-		AlertDialog.Builder builder = new AlertDialog.Builder(a.get());
+		final AlertDialog.Builder builder = new AlertDialog.Builder(a.get());
 		builder.setTitle(title);
 
 		// Set up the buttons
@@ -1023,12 +1140,17 @@ public class JUI extends JUIGeneric {
 
 			@Override
 			public void onClick(DialogInterface dialog, int which) {
-				callback(callbackfn, "\"" + choices[which] + "\"");
+				callback(callbackfn, choices[which]);
 
 			}
 		});
 
-		builder.show();
+		a.get().runOnUiThread(new Runnable() {
+			@Override
+			public void run() {
+				builder.show();
+			}
+		});
 	}
 
 	@APIParam(params = { "imageName" })
@@ -94,17 +94,10 @@ public class JMakr extends JInterface {
 				Log.d("MAKr", "" + receivedData);
 
 				if (receivedData != "") {
-					a.get().runOnUiThread(new Runnable() {
-						public void run() {
+					Log.d(TAG, "Got data: " + receivedData);
 
-							Log.d(TAG, "Got data: " + receivedData);
-							Log.d(TAG, "callback " + callbackfn);
-
-							// previous callback
-							// callback("OnSerialRead("+receivedData+");");
-							callback(callbackfn, "\"" + receivedData + "\"");
-						}
-					});
+					// callback is queued in the ui thread, no need to wait
+					callback(callbackfn, receivedData);
 				}
 			}
 		}
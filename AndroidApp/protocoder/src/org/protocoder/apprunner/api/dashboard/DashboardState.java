@@ -0,0 +1,248 @@
+/*
+ * Protocoder 
+ * A prototyping platform for Android devices 
+ * 
+ * Victor Diaz Barrales victormdb@gmail.com
+ *
+ * Copyright (C) 2013 Motorola Mobility LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions: 
+ * 
+ * The above copyright notice and this permission notice shall be included in all 
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN 
+ * THE SOFTWARE.
+ * 
+ */
+
+package org.protocoder.apprunner.api.dashboard;
+
+import java.net.UnknownHostException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.java_websocket.WebSocket;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.protocoder.apprunner.AppRunnerSettings;
+import org.protocoder.network.CustomWebsocketServer;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+
+/**
+ * What the dashboard shows. The widgets only change properties here, the
+ * changes made during an interval are merged and sent as a single delta so
+ * the values nobody would see are never sent. A new connection gets the
+ * whole dashboard at once, and so does one that lost a delta
+ */
+public class DashboardState implements CustomWebsocketServer.ConnectionListener {
+
+	private static final String TAG = "DashboardState";
+
+	private static DashboardState instance;
+
+	private final Context ctx;
+	private final Handler handler;
+
+	// values of the add message of each widget with its last properties
+	private final LinkedHashMap<String, JSONObject> widgets = new LinkedHashMap<String, JSONObject>();
+	private JSONObject dashboard = new JSONObject();
+
+	// properties changed since the last delta
+	private final LinkedHashMap<String, JSONObject> changedWidgets = new LinkedHashMap<String, JSONObject>();
+	private JSONObject changedDashboard = new JSONObject();
+
+	private int interval = AppRunnerSettings.get().dashboardInterval;
+	private boolean scheduled;
+
+	private DashboardState(Context c) {
+		ctx = c.getApplicationContext();
+		handler = new Handler(Looper.getMainLooper());
+	}
+
+	public static synchronized DashboardState get(Context c) {
+		if (instance == null) {
+			instance = new DashboardState(c);
+		}
+
+		// the server can be started after the first script
+		CustomWebsocketServer ws = instance.getServer();
+		if (ws != null) {
+			ws.addConnectionListener(instance);
+		}
+
+		return instance;
+	}
+
+	private CustomWebsocketServer getServer() {
+		try {
+			return CustomWebsocketServer.getInstance(ctx);
+		} catch (UnknownHostException e) {
+			e.printStackTrace();
+			return null;
+		}
+	}
+
+	/**
+	 * Adds the widget and sends it right away, its properties are sent with
+	 * the next delta
+	 */
+	public void add(String id, JSONObject values) throws JSONException {
+		synchronized (this) {
+			widgets.put(id, new JSONObject(values.toString()));
+		}
+
+		JSONObject msg = new JSONObject();
+		msg.put("type", "widget");
+		msg.put("action", "add");
+		msg.put("values", values);
+
+		CustomWebsocketServer ws = getServer();
+		if (ws != null) {
+			ws.send(msg);
+		}
+	}
+
+	public synchronized void set(String id, String property, Object value) {
+		JSONObject widget = widgets.get(id);
+		if (widget == null) {
+			return;
+		}
+
+		JSONObject changed = changedWidgets.get(id);
+		if (changed == null) {
+			changed = new JSONObject();
+			changedWidgets.put(id, changed);
+		}
+
+		try {
+			widget.put(property, value);
+			changed.put(property, value);
+		} catch (JSONException e) {
+			e.printStackTrace();
+		}
+		schedule();
+	}
+
+	/**
+	 * Properties of the whole dashboard, such as show or background
+	 */
+	public synchronized void setDashboard(String property, Object value) {
+		try {
+			dashboard.put(property, value);
+			changedDashboard.put(property, value);
+		} catch (JSONException e) {
+			e.printStackTrace();
+		}
+		schedule();
+	}
+
+	/**
+	 * Forgets the widgets, a new script starts with an empty dashboard
+	 */
+	public synchronized void clear() {
+		widgets.clear();
+		dashboard = new JSONObject();
+		changedWidgets.clear();
+		changedDashboard = new JSONObject();
+	}
+
+	/**
+	 * How often the changes are sent, in ms
+	 */
+	public synchronized void setInterval(int interval) {
+		this.interval = Math.max(1, interval);
+	}
+
+	private void schedule() {
+		if (!scheduled) {
+			scheduled = true;
+			handler.postDelayed(sendDelta, interval);
+		}
+	}
+
+	private final Runnable sendDelta = new Runnable() {
+		@Override
+		public void run() {
+			JSONObject msg;
+			synchronized (DashboardState.this) {
+				scheduled = false;
+				if (changedWidgets.isEmpty() && changedDashboard.length() == 0) {
+					return;
+				}
+
+				try {
+					JSONObject changes = new JSONObject();
+					for (Map.Entry<String, JSONObject> e : changedWidgets.entrySet()) {
+						changes.put(e.getKey(), e.getValue());
+					}
+					msg = message("delta", changes, changedDashboard);
+				} catch (JSONException e) {
+					e.printStackTrace();
+					return;
+				} finally {
+					changedWidgets.clear();
+					changedDashboard = new JSONObject();
+				}
+			}
+
+			CustomWebsocketServer ws = getServer();
+			if (ws != null) {
+				ws.send(msg);
+			}
+		}
+	};
+
+	private JSONObject message(String action, Object widgets, JSONObject dashboard) throws JSONException {
+		JSONObject values = new JSONObject();
+		values.put("widgets", widgets);
+		values.put("dashboard", dashboard);
+
+		JSONObject msg = new JSONObject();
+		msg.put("type", "widget");
+		msg.put("action", action);
+		msg.put("values", values);
+		return msg;
+	}
+
+	@Override
+	public void onResync(WebSocket conn) {
+		onConnected(conn);
+	}
+
+	@Override
+	public void onConnected(WebSocket conn) {
+		CustomWebsocketServer ws = getServer();
+		if (ws == null) {
+			return;
+		}
+
+		// sent holding the lock, the widgets keep changing
+		synchronized (this) {
+			try {
+				JSONArray all = new JSONArray();
+				for (JSONObject widget : widgets.values()) {
+					all.put(widget);
+				}
+				ws.send(conn, message("snapshot", all, dashboard));
+			} catch (JSONException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+}
@@ -57,11 +57,6 @@ public class JDashboardButton extends JInterface {
 			UnknownHostException {
 		this.id = StrUtils.generateRandomString();
 		this.name = name;
-		JSONObject msg = new JSONObject();
-
-		msg.put("type", "widget");
-		msg.put("action", "add");
-
 		JSONObject values = new JSONObject();
 		values.put("id", id);
 		values.put("name", name);
@@ -71,10 +66,7 @@ public class JDashboardButton extends JInterface {
 		values.put("w", w);
 		values.put("h", h);
 
-		msg.put("values", values);
-
-		CustomWebsocketServer ws = CustomWebsocketServer.getInstance(a.get());
-		ws.send(msg);
+		DashboardState.get(a.get()).add(id, values);
 
 		CustomWebsocketServer.getInstance(a.get()).addListener(id, new WebSocketListener() {
 
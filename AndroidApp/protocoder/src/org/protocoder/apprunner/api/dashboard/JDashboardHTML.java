@@ -35,7 +35,6 @@ import org.json.JSONObject;
 import org.protocoder.apidoc.annotation.APIMethod;
 import org.protocoder.apprunner.JInterface;
 import org.protocoder.apprunner.JavascriptInterface;
-import org.protocoder.network.CustomWebsocketServer;
 import org.protocoder.utils.StrUtils;
 
 import android.app.Activity;
@@ -53,11 +52,6 @@ public class JDashboardHTML extends JInterface {
 	@APIMethod(description = "", example = "")
 	public void add(String html, int posx, int posy) throws UnknownHostException, JSONException {
 		this.id = StrUtils.generateRandomString();
-		JSONObject msg = new JSONObject();
-
-		msg.put("type", "widget");
-		msg.put("action", "add");
-
 		JSONObject values = new JSONObject();
 		values.put("id", id);
 		values.put("type", "html");
@@ -65,29 +59,13 @@ public class JDashboardHTML extends JInterface {
 		values.put("y", posy);
 		values.put("html", html);
 
-		msg.put("values", values);
-
-		CustomWebsocketServer ws = CustomWebsocketServer.getInstance(a.get());
-		ws.send(msg);
+		DashboardState.get(a.get()).add(id, values);
 
 	}
 
 	@JavascriptInterface
 	@APIMethod(description = "", example = "")
 	public void changeImage(String url) throws JSONException, UnknownHostException {
-		JSONObject msg = new JSONObject();
-
-		msg.put("type", "widget");
-		msg.put("action", "changeImage");
-
-		JSONObject values = new JSONObject();
-		values.put("id", id);
-		values.put("type", "label");
-		values.put("url", url);
-		msg.put("values", values);
-
-		CustomWebsocketServer ws = CustomWebsocketServer.getInstance(a.get());
-		ws.send(msg);
-
+		DashboardState.get(a.get()).set(id, "url", url);
 	}
 }
@@ -35,7 +35,6 @@ import org.json.JSONObject;
 import org.protocoder.apidoc.annotation.APIMethod;
 import org.protocoder.apprunner.JInterface;
 import org.protocoder.apprunner.JavascriptInterface;
-import org.protocoder.network.CustomWebsocketServer;
 import org.protocoder.utils.StrUtils;
 
 import android.app.Activity;
@@ -53,11 +52,6 @@ public class JDashboardLabel extends JInterface {
 	@APIMethod(description = "", example = "")
 	public void add(String name, int x, int y, int size, String color) throws UnknownHostException, JSONException {
 		this.id = StrUtils.generateRandomString();
-		JSONObject msg = new JSONObject();
-
-		msg.put("type", "widget");
-		msg.put("action", "add");
-
 		JSONObject values = new JSONObject();
 		values.put("id", id);
 		values.put("name", name);
@@ -67,29 +61,14 @@ public class JDashboardLabel extends JInterface {
 		values.put("size", size);
 		values.put("color", color);
 
-		msg.put("values", values);
-
-		CustomWebsocketServer ws = CustomWebsocketServer.getInstance(a.get());
-		ws.send(msg);
+		DashboardState.get(a.get()).add(id, values);
 
 	}
 
 	@JavascriptInterface
 	@APIMethod(description = "", example = "")
 	public void setText(String text) throws UnknownHostException, JSONException {
-		JSONObject msg = new JSONObject();
-
-		msg.put("type", "widget");
-		msg.put("action", "setLabelText");
-
-		JSONObject values = new JSONObject();
-		values.put("id", id);
-		values.put("type", "label");
-		values.put("val", text);
-		msg.put("values", values);
-
-		CustomWebsocketServer ws = CustomWebsocketServer.getInstance(a.get());
-		ws.send(msg);
-
+		// merged with the other changes in the next delta
+		DashboardState.get(a.get()).set(id, "text", text);
 	}
 }
@@ -35,7 +35,6 @@ import org.json.JSONObject;
 import org.protocoder.apidoc.annotation.APIMethod;
 import org.protocoder.apprunner.JInterface;
 import org.protocoder.apprunner.JavascriptInterface;
-import org.protocoder.network.CustomWebsocketServer;
 import org.protocoder.utils.StrUtils;
 
 import android.app.Activity;
@@ -54,11 +53,6 @@ public class JDashboardPlot extends JInterface {
 	public void add(String name, int x, int y, int w, int h, float minLimit, float maxLimit)
 			throws UnknownHostException, JSONException {
 		this.id = StrUtils.generateRandomString();
-		JSONObject msg = new JSONObject();
-
-		msg.put("type", "widget");
-		msg.put("action", "add");
-
 		JSONObject values = new JSONObject();
 		values.put("id", id);
 		values.put("name", name);
@@ -70,29 +64,24 @@ public class JDashboardPlot extends JInterface {
 		values.put("minLimit", minLimit);
 		values.put("maxLimit", maxLimit);
 
-		msg.put("values", values);
-
-		CustomWebsocketServer ws = CustomWebsocketServer.getInstance(a.get());
-		ws.send(msg);
+		DashboardState.get(a.get()).add(id, values);
 
 	}
 
 	@JavascriptInterface
 	@APIMethod(description = "", example = "")
-	public void update(float val) throws UnknownHostException, JSONException {
-		JSONObject msg = new JSONObject();
-
-		msg.put("type", "widget");
-		msg.put("action", "update");
-
-		JSONObject values = new JSONObject();
-		values.put("id", id);
-		values.put("type", "plot");
-		values.put("val", val);
-		msg.put("values", values);
+	public void update(float val) {
+		if (id == null) {
+			return;
+		}
 
-		CustomWebsocketServer ws = CustomWebsocketServer.getInstance(a.get());
-		ws.send(msg);
+		// sent with the other samples in the next plot message
+		PlotStream.get(a.get()).add(id, val);
+	}
 
+	@JavascriptInterface
+	@APIMethod(description = "how often the samples of the plots are sent, in ms", example = "")
+	public void updateInterval(int ms) {
+		PlotStream.get(a.get()).setInterval(ms);
 	}
 }
@@ -56,11 +56,6 @@ public class JDashboardSlider extends JInterface {
 	public void add(String name, int x, int y, int w, int h, int min, int max, final String callbackfn)
 			throws UnknownHostException, JSONException {
 		this.id = StrUtils.generateRandomString();
-		JSONObject msg = new JSONObject();
-
-		msg.put("type", "widget");
-		msg.put("action", "add");
-
 		JSONObject values = new JSONObject();
 		values.put("id", id);
 		values.put("name", name);
@@ -72,10 +67,7 @@ public class JDashboardSlider extends JInterface {
 		values.put("min", min);
 		values.put("max", max);
 
-		msg.put("values", values);
-
-		CustomWebsocketServer ws = CustomWebsocketServer.getInstance(a.get());
-		ws.send(msg);
+		DashboardState.get(a.get()).add(id, values);
 
 		CustomWebsocketServer.getInstance(a.get()).addListener(id, new WebSocketListener() {
 			@Override
@@ -97,19 +89,6 @@ public class JDashboardSlider extends JInterface {
 	@JavascriptInterface
 	@APIMethod(description = "", example = "")
 	public void setPosition(float position) throws UnknownHostException, JSONException {
-		JSONObject msg = new JSONObject();
-
-		msg.put("type", "widget");
-		msg.put("action", "setPosition");
-
-		JSONObject values = new JSONObject();
-		values.put("id", id);
-		values.put("type", "label");
-		values.put("val", position);
-		msg.put("values", values);
-
-		CustomWebsocketServer ws = CustomWebsocketServer.getInstance(a.get());
-		ws.send(msg);
-
+		DashboardState.get(a.get()).set(id, "position", position);
 	}
 }
@@ -0,0 +1,233 @@
+/*
+ * Protocoder 
+ * A prototyping platform for Android devices 
+ * 
+ * Victor Diaz Barrales victormdb@gmail.com
+ *
+ * Copyright (C) 2013 Motorola Mobility LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions: 
+ * 
+ * The above copyright notice and this permission notice shall be included in all 
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN 
+ * THE SOFTWARE.
+ * 
+ */
+
+package org.protocoder.apprunner.api.dashboard;
+
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+import org.protocoder.apprunner.AppRunnerSettings;
+import org.protocoder.network.CustomWebsocketServer;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+/**
+ * Samples of the dashboard plots. They are kept in a ring buffer per plot and
+ * sent together every interval as a single binary message:
+ * 
+ * <pre>
+ * u8  kind (1, plot samples)
+ * f64 time of the first sample in ms
+ * u8  number of plots
+ * for each plot
+ *   u8  length of the id, id in ascii
+ *   u16 number of samples
+ *   for each sample f32 ms after the first sample, f32 value
+ * </pre>
+ * 
+ * Everything is big endian. When the IDE is behind the oldest samples are
+ * overwritten
+ */
+public class PlotStream {
+
+	private static final String TAG = "PlotStream";
+
+	public static final int KIND_PLOT_SAMPLES = 1;
+	private static final int CAPACITY = 1024;
+	private static final int MAX_PLOTS = 255;
+	// plots without samples for this long are forgotten
+	private static final int IDLE_TIMEOUT = 10000;
+
+	private static PlotStream instance;
+
+	private final Context ctx;
+	private final Handler handler;
+	private final LinkedHashMap<String, Samples> plots = new LinkedHashMap<String, Samples>();
+	private int interval = AppRunnerSettings.get().plotInterval;
+	private boolean scheduled;
+
+	static class Samples {
+		final byte[] id;
+		final float[] values = new float[CAPACITY];
+		final long[] times = new long[CAPACITY];
+		int start;
+		int count;
+		long last;
+
+		Samples(String id) {
+			byte[] b = id.getBytes();
+			if (b.length > 255) {
+				byte[] cut = new byte[255];
+				System.arraycopy(b, 0, cut, 0, cut.length);
+				b = cut;
+			}
+			this.id = b;
+		}
+
+		void add(float value, long time) {
+			int i = (start + count) % CAPACITY;
+			values[i] = value;
+			times[i] = time;
+			last = time;
+			if (count < CAPACITY) {
+				count++;
+			} else {
+				start = (start + 1) % CAPACITY;
+			}
+		}
+	}
+
+	private PlotStream(Context c) {
+		ctx = c.getApplicationContext();
+		handler = new Handler(Looper.getMainLooper());
+	}
+
+	public static synchronized PlotStream get(Context c) {
+		if (instance == null) {
+			instance = new PlotStream(c);
+		}
+
+		return instance;
+	}
+
+	public synchronized void add(String id, float value) {
+		Samples samples = plots.get(id);
+		if (samples == null) {
+			if (plots.size() >= MAX_PLOTS) {
+				removeIdle();
+			}
+			if (plots.size() >= MAX_PLOTS) {
+				Log.d(TAG, "too many plots, ignoring " + id);
+				return;
+			}
+			samples = new Samples(id);
+			plots.put(id, samples);
+		}
+		samples.add(value, System.currentTimeMillis());
+
+		if (!scheduled) {
+			scheduled = true;
+			handler.postDelayed(send, interval);
+		}
+	}
+
+	public synchronized void remove(String id) {
+		plots.remove(id);
+	}
+
+	/**
+	 * How often the samples are sent, in ms
+	 */
+	public synchronized void setInterval(int interval) {
+		this.interval = Math.max(1, interval);
+	}
+
+	private final Runnable send = new Runnable() {
+		@Override
+		public void run() {
+			byte[] frame;
+			synchronized (PlotStream.this) {
+				scheduled = false;
+				frame = encode();
+			}
+			if (frame == null) {
+				return;
+			}
+
+			try {
+				CustomWebsocketServer ws = CustomWebsocketServer.getInstance(ctx);
+				if (ws != null) {
+					ws.send("widget", "plotSamples", frame);
+				}
+			} catch (UnknownHostException e) {
+				e.printStackTrace();
+			}
+		}
+	};
+
+	private void removeIdle() {
+		long now = System.currentTimeMillis();
+		Iterator<Samples> it = plots.values().iterator();
+		while (it.hasNext()) {
+			Samples samples = it.next();
+			if (samples.count == 0 && now - samples.last > IDLE_TIMEOUT) {
+				it.remove();
+			}
+		}
+	}
+
+	/**
+	 * The samples waiting as a message, they are removed from the buffers
+	 */
+	private byte[] encode() {
+		int size = 1 + 8 + 1;
+		int count = 0;
+		long first = Long.MAX_VALUE;
+		removeIdle();
+		for (Samples samples : plots.values()) {
+			if (samples.count > 0) {
+				size += 1 + samples.id.length + 2 + samples.count * 8;
+				first = Math.min(first, samples.times[samples.start]);
+				count++;
+			}
+		}
+		if (count == 0) {
+			return null;
+		}
+
+		ByteBuffer out = ByteBuffer.allocate(size);
+		out.put((byte) KIND_PLOT_SAMPLES);
+		out.putDouble(first);
+		out.put((byte) count);
+
+		for (Samples samples : plots.values()) {
+			if (samples.count == 0) {
+				continue;
+			}
+
+			out.put((byte) samples.id.length);
+			out.put(samples.id);
+			out.putShort((short) samples.count);
+			for (int n = 0; n < samples.count; n++) {
+				int i = (samples.start + n) % CAPACITY;
+				out.putFloat(samples.times[i] - first);
+				out.putFloat(samples.values[i]);
+			}
+			samples.start = 0;
+			samples.count = 0;
+		}
+
+		return out.array();
+	}
+
+}
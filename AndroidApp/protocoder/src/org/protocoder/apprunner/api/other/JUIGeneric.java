@@ -193,10 +193,17 @@ public class JUIGeneric extends JInterface {
 			bgImageView = new ImageView(a.get());
 			holderLayout.addView(bgImageView, layoutParams);
 
-			// set the layout
-			a.get().initLayout();
-			a.get().addScriptedLayout(parentLayout);
-			holderLayout.addView(sv);
+			// set the layout, the views are created here but only attached in
+			// the UI-thread
+			final RelativeLayout layout = parentLayout;
+			a.get().runOnUiThread(new Runnable() {
+				@Override
+				public void run() {
+					a.get().initLayout();
+					a.get().addScriptedLayout(layout);
+					holderLayout.addView(sv);
+				}
+			});
 
 			isMainLayoutSetup = true;
 		}
@@ -228,15 +235,25 @@ public class JUIGeneric extends JInterface {
 		isScrollLayout = scroll;
 	}
 
-	protected void addViewAbsolute(View v, int x, int y, int w, int h) {
-		positionView(v, x, y, w, h);
-		addViewGeneric(v);
-		uiAbsoluteLayout.addView(v);
+	protected void addViewAbsolute(final View v, final int x, final int y, final int w, final int h) {
+		a.get().runOnUiThread(new Runnable() {
+			@Override
+			public void run() {
+				positionView(v, x, y, w, h);
+				addViewGeneric(v);
+				uiAbsoluteLayout.addView(v);
+			}
+		});
 	}
 
-	protected void addViewLinear(View v) {
-		addViewGeneric(v);
-		uiLinearLayout.addView(v);
+	protected void addViewLinear(final View v) {
+		a.get().runOnUiThread(new Runnable() {
+			@Override
+			public void run() {
+				addViewGeneric(v);
+				uiLinearLayout.addView(v);
+			}
+		});
 	}
 
 	protected void addViewGeneric(View v) {
@@ -247,8 +264,13 @@ public class JUIGeneric extends JInterface {
 	}
 
 	public void removeAll() {
-		uiAbsoluteLayout.removeAllViews();
-		uiLinearLayout.removeAllViews();
+		a.get().runOnUiThread(new Runnable() {
+			@Override
+			public void run() {
+				uiAbsoluteLayout.removeAllViews();
+				uiLinearLayout.removeAllViews();
+			}
+		});
 	}
 
 	/**
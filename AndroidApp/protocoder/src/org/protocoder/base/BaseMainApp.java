@@ -31,6 +31,7 @@ package org.protocoder.base;
 import java.io.File;
 
 import org.protocoder.AppSettings;
+import org.protocoder.events.ProjectManager;
 import org.protocoder.utils.FileIO;
 
 import android.app.Application;
@@ -65,5 +66,8 @@ public class BaseMainApp extends Application {
 
 		// Copy all example apps to the base directory
 		FileIO.copyAssetFolder(getAssets(), "ExampleApps", baseDir);
+
+		// read the projects once, they are kept up to date from here
+		ProjectManager.getInstance().getIndex().load();
 	}
 }
\ No newline at end of file
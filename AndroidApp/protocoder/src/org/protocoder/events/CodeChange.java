@@ -0,0 +1,171 @@
+/*
+ * Protocoder 
+ * A prototyping platform for Android devices 
+ * 
+ * Victor Diaz Barrales victormdb@gmail.com
+ *
+ * Copyright (C) 2013 Motorola Mobility LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions: 
+ * 
+ * The above copyright notice and this permission notice shall be included in all 
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN 
+ * THE SOFTWARE.
+ * 
+ */
+
+package org.protocoder.events;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * The part of the code that changed between two versions, in lines. The IDE
+ * can send only the edits as a json array of {from, to, text} where from and
+ * to are character offsets in the previous version
+ */
+public class CodeChange {
+
+	// first and last changed line in the new code, both 0 based and inclusive
+	private int fromLine;
+	private int toLine;
+	// last changed line in the previous code
+	private int oldToLine;
+	private boolean changed;
+	// the changed text has as many lines in both versions
+	private boolean sameLines;
+
+	/**
+	 * Applies the edits to the code, throws IllegalArgumentException if they
+	 * don't fit in it
+	 */
+	public static String apply(String code, JSONArray edits) throws JSONException {
+		JSONObject[] sorted = new JSONObject[edits.length()];
+		for (int i = 0; i < sorted.length; i++) {
+			sorted[i] = edits.getJSONObject(i);
+		}
+
+		// from the end so the offsets of the other edits stay valid
+		Arrays.sort(sorted, new Comparator<JSONObject>() {
+			@Override
+			public int compare(JSONObject e1, JSONObject e2) {
+				return e2.optInt("from") - e1.optInt("from");
+			}
+		});
+
+		StringBuilder out = new StringBuilder(code);
+		int limit = code.length();
+		for (JSONObject edit : sorted) {
+			int from = edit.getInt("from");
+			int to = edit.optInt("to", from);
+			if (from < 0 || to < from || to > limit) {
+				throw new IllegalArgumentException("edit out of range " + from + "-" + to);
+			}
+			out.replace(from, to, edit.optString("text", ""));
+			limit = from;
+		}
+
+		return out.toString();
+	}
+
+	/**
+	 * Compares both versions skipping what they have in common at the start
+	 * and at the end
+	 */
+	public static CodeChange between(String before, String after) {
+		CodeChange change = new CodeChange();
+		if (before == null) {
+			before = "";
+		}
+
+		int start = 0;
+		int max = Math.min(before.length(), after.length());
+		while (start < max && before.charAt(start) == after.charAt(start)) {
+			start++;
+		}
+
+		int endBefore = before.length();
+		int endAfter = after.length();
+		while (endBefore > start && endAfter > start && before.charAt(endBefore - 1) == after.charAt(endAfter - 1)) {
+			endBefore--;
+			endAfter--;
+		}
+
+		change.changed = start != endBefore || start != endAfter;
+		change.fromLine = countLines(after, start);
+		change.toLine = countLines(after, Math.max(start, endAfter - 1));
+		change.oldToLine = countLines(before, Math.max(start, endBefore - 1));
+		change.sameLines = countLines(before, start, endBefore) == countLines(after, start, endAfter);
+
+		return change;
+	}
+
+	private static int countLines(String s, int end) {
+		return countLines(s, 0, end);
+	}
+
+	private static int countLines(String s, int start, int end) {
+		int lines = 0;
+		end = Math.min(end, s.length());
+		for (int i = start; i < end; i++) {
+			if (s.charAt(i) == '\n') {
+				lines++;
+			}
+		}
+		return lines;
+	}
+
+	public boolean isChanged() {
+		return changed;
+	}
+
+	public int getFromLine() {
+		return fromLine;
+	}
+
+	public int getToLine() {
+		return toLine;
+	}
+
+	public int getOldToLine() {
+		return oldToLine;
+	}
+
+	/**
+	 * True when the change doesn't add or remove lines, the runner can then
+	 * evaluate the changed lines again instead of restarting
+	 */
+	public boolean isSameLines() {
+		return changed && sameLines;
+	}
+
+	public JSONObject toJson() {
+		JSONObject json = new JSONObject();
+		try {
+			json.put("changed", changed);
+			json.put("from_line", fromLine);
+			json.put("to_line", toLine);
+			json.put("old_to_line", oldToLine);
+		} catch (JSONException e) {
+			e.printStackTrace();
+		}
+		return json;
+	}
+
+}
@@ -0,0 +1,265 @@
+/*
+ * Protocoder 
+ * A prototyping platform for Android devices 
+ * 
+ * Victor Diaz Barrales victormdb@gmail.com
+ *
+ * Copyright (C) 2013 Motorola Mobility LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions: 
+ * 
+ * The above copyright notice and this permission notice shall be included in all 
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN 
+ * THE SOFTWARE.
+ * 
+ */
+
+package org.protocoder.events;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.protocoder.utils.StrUtils;
+
+import android.util.Log;
+
+/**
+ * Reads and writes the project sources. Files are read in one go through a
+ * FileChannel and the last ones used are kept in memory together with their
+ * hash, a cached entry is valid while the file keeps its size and date.
+ * Writes go to a temporary file that is renamed over the old one, and are
+ * skipped when the content is the same
+ */
+public class CodeStore {
+
+	private static final String TAG = "CodeStore";
+	private static final String CHARSET = "UTF-8";
+	private static final int MAX_ENTRIES = 32;
+	private static final int MAX_ENTRY_SIZE = 512 * 1024;
+
+	private static CodeStore instance;
+
+	private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(MAX_ENTRIES, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+			return size() > MAX_ENTRIES;
+		}
+	};
+
+	private int hits = 0;
+	private int misses = 0;
+	private int skippedWrites = 0;
+
+	static class Entry {
+		long lastModified;
+		long length;
+		String text;
+		String hash;
+	}
+
+	// reached from the http workers at the same time
+	public static synchronized CodeStore get() {
+		if (instance == null) {
+			instance = new CodeStore();
+		}
+
+		return instance;
+	}
+
+	/**
+	 * Returns the content of the file or null if it cannot be read
+	 */
+	public String read(File f) {
+		Entry entry = getEntry(f);
+		return entry != null ? entry.text : null;
+	}
+
+	/**
+	 * Returns the sha1 of the content of the file or null if it cannot be
+	 * read
+	 */
+	public String getHash(File f) {
+		Entry entry = getEntry(f);
+		return entry != null ? entry.hash : null;
+	}
+
+	/**
+	 * Writes the text replacing the file at once, returns false if the file
+	 * already had the same content and nothing was written
+	 */
+	public boolean write(File f, String text) throws IOException {
+		byte[] data = text.getBytes(CHARSET);
+		String hash = StrUtils.sha1(data);
+
+		Entry current = getEntry(f);
+		if (current != null && hash.equals(current.hash)) {
+			synchronized (entries) {
+				skippedWrites++;
+			}
+			return false;
+		}
+
+		File dir = f.getAbsoluteFile().getParentFile();
+		if (dir != null && !dir.exists()) {
+			dir.mkdirs();
+		}
+
+		File tmp = new File(dir, "." + f.getName() + ".tmp");
+		FileOutputStream out = new FileOutputStream(tmp);
+		try {
+			FileChannel channel = out.getChannel();
+			ByteBuffer buffer = ByteBuffer.wrap(data);
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+			channel.force(false);
+		} catch (IOException e) {
+			out.close();
+			tmp.delete();
+			throw e;
+		}
+		out.close();
+
+		if (!tmp.renameTo(f)) {
+			// some file systems don't replace on rename
+			f.delete();
+			if (!tmp.renameTo(f)) {
+				tmp.delete();
+				throw new IOException("cannot replace " + f);
+			}
+		}
+
+		Entry entry = new Entry();
+		entry.lastModified = f.lastModified();
+		entry.length = data.length;
+		entry.text = text;
+		entry.hash = hash;
+		put(f, entry);
+
+		return true;
+	}
+
+	public void remove(File f) {
+		synchronized (entries) {
+			entries.remove(f.getAbsolutePath());
+		}
+	}
+
+	public void clear() {
+		synchronized (entries) {
+			entries.clear();
+		}
+	}
+
+	public int getHits() {
+		return hits;
+	}
+
+	public int getMisses() {
+		return misses;
+	}
+
+	public int getSkippedWrites() {
+		return skippedWrites;
+	}
+
+	private Entry getEntry(File f) {
+		String key = f.getAbsolutePath();
+		long lastModified = f.lastModified();
+		long length = f.length();
+
+		synchronized (entries) {
+			Entry entry = entries.get(key);
+			if (entry != null && entry.lastModified == lastModified && entry.length == length) {
+				hits++;
+				return entry;
+			}
+			misses++;
+		}
+
+		if (!f.isFile()) {
+			remove(f);
+			return null;
+		}
+
+		byte[] data;
+		try {
+			data = readBytes(f);
+		} catch (IOException e) {
+			Log.d(TAG, "cannot read " + f + " " + e);
+			return null;
+		}
+
+		Entry entry = new Entry();
+		entry.lastModified = lastModified;
+		entry.length = data.length;
+		entry.hash = StrUtils.sha1(data);
+		try {
+			entry.text = new String(data, CHARSET);
+		} catch (UnsupportedEncodingException e) {
+			throw new RuntimeException(e);
+		}
+		put(f, entry);
+
+		return entry;
+	}
+
+	private void put(File f, Entry entry) {
+		if (entry.length > MAX_ENTRY_SIZE) {
+			remove(f);
+			return;
+		}
+
+		synchronized (entries) {
+			entries.put(f.getAbsolutePath(), entry);
+		}
+	}
+
+	private static byte[] readBytes(File f) throws IOException {
+		FileInputStream in = new FileInputStream(f);
+		try {
+			FileChannel channel = in.getChannel();
+			long size = channel.size();
+			if (size > Integer.MAX_VALUE) {
+				throw new IOException("file too big " + f);
+			}
+
+			ByteBuffer buffer = ByteBuffer.allocate((int) size);
+			while (buffer.hasRemaining()) {
+				if (channel.read(buffer) < 0) {
+					break;
+				}
+			}
+
+			if (buffer.hasRemaining()) {
+				// the file got shorter while reading it
+				byte[] data = new byte[buffer.position()];
+				System.arraycopy(buffer.array(), 0, data, 0, data.length);
+				return data;
+			}
+			return buffer.array();
+		} finally {
+			in.close();
+		}
+	}
+
+}
@@ -33,6 +33,7 @@ public class Events {
 		private Project project;
 		private String name;
 		private String action;
+		private CodeChange change;
 
 		public ProjectEvent(Project aProject, String anAction) {
 			project = aProject;
@@ -53,6 +54,17 @@ public class Events {
 			action = newAction;
 		}
 
+		/**
+		 * What changed in the code when the action is save, can be null
+		 */
+		public CodeChange getChange() {
+			return change;
+		}
+
+		public void setChange(CodeChange change) {
+			this.change = change;
+		}
+
 		public String getFile() {
 			return project.getStoragePath();
 		}
@@ -81,6 +93,18 @@ public class Events {
 		}
 	}
 
+	public static class ProfilerEvent {
+		private boolean enabled;
+
+		public ProfilerEvent(boolean enabled) {
+			this.enabled = enabled;
+		}
+
+		public boolean isEnabled() {
+			return enabled;
+		}
+	}
+
 	public static class LogEvent {
 		private String msg;
 		private String tag;
@@ -0,0 +1,374 @@
+/*
+ * Protocoder 
+ * A prototyping platform for Android devices 
+ * 
+ * Victor Diaz Barrales victormdb@gmail.com
+ *
+ * Copyright (C) 2013 Motorola Mobility LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions: 
+ * 
+ * The above copyright notice and this permission notice shall be included in all 
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN 
+ * THE SOFTWARE.
+ * 
+ */
+
+package org.protocoder.events;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.TreeMap;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.protocoder.base.BaseMainApp;
+
+import android.os.FileObserver;
+import android.util.Log;
+
+/**
+ * Projects and their files kept in memory. Each folder is read once and then
+ * kept up to date by a FileObserver, the json sent to the IDE is built again
+ * only after something changed
+ */
+public class ProjectIndex {
+
+	private static final String TAG = "ProjectIndex";
+
+	private static final int DIR_EVENTS = FileObserver.CREATE | FileObserver.DELETE | FileObserver.MOVED_FROM
+			| FileObserver.MOVED_TO | FileObserver.DELETE_SELF | FileObserver.MOVE_SELF;
+	private static final int FILE_EVENTS = DIR_EVENTS | FileObserver.CLOSE_WRITE | FileObserver.ATTRIB;
+
+	private final HashMap<Integer, Folder> folders = new HashMap<Integer, Folder>();
+
+	static class FileInfo {
+		String name;
+		long size;
+		long lastModified;
+	}
+
+	class Entry {
+		final Project project;
+		TreeMap<String, FileInfo> files;
+		JSONArray filesJson;
+		FileObserver observer;
+
+		Entry(Project project) {
+			this.project = project;
+		}
+
+		/**
+		 * Files are read the first time they are asked for, then watched
+		 */
+		void loadFiles() {
+			if (files != null) {
+				return;
+			}
+
+			files = new TreeMap<String, FileInfo>();
+			File[] all = new File(project.getStoragePath()).listFiles();
+			if (all != null) {
+				for (File f : all) {
+					if (!isTemporary(f.getName())) {
+						files.put(f.getName(), info(f));
+					}
+				}
+			}
+
+			observer = new FileObserver(project.getStoragePath(), FILE_EVENTS) {
+				@Override
+				public void onEvent(int event, String path) {
+					onFileEvent(Entry.this, event & FileObserver.ALL_EVENTS, path);
+				}
+			};
+			observer.startWatching();
+		}
+
+		void stop() {
+			if (observer != null) {
+				observer.stopWatching();
+				observer = null;
+			}
+		}
+	}
+
+	class Folder {
+		final int type;
+		final File dir;
+		final TreeMap<String, Entry> projects = new TreeMap<String, Entry>();
+		JSONArray projectsJson;
+		FileObserver observer;
+
+		Folder(int type, File dir) {
+			this.type = type;
+			this.dir = dir;
+		}
+	}
+
+	/**
+	 * Hidden files and the ones being written, such as the temp copies of
+	 * the code or the uploads that didn't finish
+	 */
+	private static boolean isTemporary(String name) {
+		return name.startsWith(".") || name.endsWith(".part");
+	}
+
+	private static FileInfo info(File f) {
+		FileInfo info = new FileInfo();
+		info.name = f.getName();
+		info.size = f.length();
+		info.lastModified = f.lastModified();
+		return info;
+	}
+
+	/**
+	 * Null for unknown types, only the two project folders are watched
+	 */
+	private Folder getFolder(int type) {
+		if (type != ProjectManager.PROJECT_USER_MADE && type != ProjectManager.PROJECT_EXAMPLE) {
+			return null;
+		}
+
+		Folder folder = folders.get(type);
+		if (folder == null) {
+			File dir = new File(type == ProjectManager.PROJECT_EXAMPLE ? BaseMainApp.examplesDir
+					: BaseMainApp.projectsDir);
+			if (!dir.exists()) {
+				dir.mkdirs();
+			}
+
+			folder = new Folder(type, dir);
+			folders.put(type, folder);
+			load(folder);
+		}
+
+		return folder;
+	}
+
+	private void load(final Folder folder) {
+		for (Entry entry : folder.projects.values()) {
+			entry.stop();
+		}
+		folder.projects.clear();
+
+		File[] all = folder.dir.listFiles();
+		if (all != null) {
+			for (File f : all) {
+				addProject(folder, f.getName());
+			}
+		}
+
+		if (folder.observer == null) {
+			folder.observer = new FileObserver(folder.dir.getAbsolutePath(), DIR_EVENTS) {
+				@Override
+				public void onEvent(int event, String path) {
+					onProjectEvent(folder, event & FileObserver.ALL_EVENTS, path);
+				}
+			};
+			folder.observer.startWatching();
+		}
+		changed(folder);
+	}
+
+	private void addProject(Folder folder, String name) {
+		File dir = new File(folder.dir, name);
+		if (isTemporary(name) || !dir.isDirectory()) {
+			return;
+		}
+		Project p = new Project(name, dir.getAbsolutePath(), folder.type, false, false);
+		folder.projects.put(name, new Entry(p));
+	}
+
+	private void changed(Folder folder) {
+		folder.projectsJson = null;
+	}
+
+	private synchronized void onProjectEvent(Folder folder, int event, String name) {
+		if ((event & (FileObserver.DELETE_SELF | FileObserver.MOVE_SELF)) != 0) {
+			// the whole folder is gone, it is read again next time
+			folder.observer.stopWatching();
+			folder.observer = null;
+			for (Entry entry : folder.projects.values()) {
+				entry.stop();
+			}
+			folders.remove(folder.type);
+			return;
+		}
+		if (name == null) {
+			return;
+		}
+
+		Log.d(TAG, "project event " + event + " " + name);
+		if ((event & (FileObserver.CREATE | FileObserver.MOVED_TO)) != 0) {
+			Entry previous = folder.projects.remove(name);
+			if (previous != null) {
+				previous.stop();
+			}
+			addProject(folder, name);
+		} else if ((event & (FileObserver.DELETE | FileObserver.MOVED_FROM)) != 0) {
+			Entry entry = folder.projects.remove(name);
+			if (entry != null) {
+				entry.stop();
+			}
+		}
+		changed(folder);
+	}
+
+	private synchronized void onFileEvent(Entry entry, int event, String name) {
+		if ((event & (FileObserver.DELETE_SELF | FileObserver.MOVE_SELF)) != 0) {
+			entry.stop();
+			entry.files = null;
+			entry.filesJson = null;
+			return;
+		}
+		if (name == null || entry.files == null || isTemporary(name)) {
+			return;
+		}
+
+		File f = new File(entry.project.getStoragePath(), name);
+		if ((event & (FileObserver.DELETE | FileObserver.MOVED_FROM)) != 0 || !f.exists()) {
+			entry.files.remove(name);
+		} else {
+			entry.files.put(name, info(f));
+		}
+		entry.filesJson = null;
+	}
+
+	/**
+	 * Reads the folders, called when the app starts
+	 */
+	public synchronized void load() {
+		getFolder(ProjectManager.PROJECT_USER_MADE);
+		getFolder(ProjectManager.PROJECT_EXAMPLE);
+	}
+
+	/**
+	 * Reads the folder of the type again, for changes the observers can't see
+	 * such as the storage being mounted again
+	 */
+	public synchronized void reload(int type) {
+		Folder folder = getFolder(type);
+		if (folder != null) {
+			load(folder);
+		}
+	}
+
+	/**
+	 * Updates the project right away instead of waiting for the observer, used
+	 * after the app itself wrote to it
+	 */
+	public synchronized void update(int type, String name) {
+		Folder folder = getFolder(type);
+		if (folder == null) {
+			return;
+		}
+		File dir = new File(folder.dir, name);
+
+		Entry entry = folder.projects.get(name);
+		if (!dir.exists()) {
+			if (entry != null) {
+				entry.stop();
+				folder.projects.remove(name);
+				changed(folder);
+			}
+			return;
+		}
+
+		if (entry == null) {
+			addProject(folder, name);
+			changed(folder);
+		} else if (entry.files != null) {
+			entry.files.clear();
+			File[] all = dir.listFiles();
+			if (all != null) {
+				for (File f : all) {
+					entry.files.put(f.getName(), info(f));
+				}
+			}
+			entry.filesJson = null;
+		}
+	}
+
+	public synchronized ArrayList<Project> list(int type) {
+		ArrayList<Project> projects = new ArrayList<Project>();
+		Folder folder = getFolder(type);
+		if (folder == null) {
+			return projects;
+		}
+		for (Entry entry : folder.projects.values()) {
+			projects.add(entry.project);
+		}
+		return projects;
+	}
+
+	public synchronized Project get(String name, int type) {
+		Folder folder = getFolder(type);
+		Entry entry = folder != null ? folder.projects.get(name) : null;
+		return entry != null ? entry.project : null;
+	}
+
+	/**
+	 * The projects of the type as sent to the IDE, the same array until
+	 * something changes
+	 */
+	public synchronized JSONArray listJSON(int type) {
+		Folder folder = getFolder(type);
+		if (folder == null) {
+			return new JSONArray();
+		}
+		if (folder.projectsJson == null) {
+			JSONArray array = new JSONArray();
+			for (Entry entry : folder.projects.values()) {
+				array.put(ProjectManager.getInstance().toJson(entry.project));
+			}
+			folder.projectsJson = array;
+		}
+		return folder.projectsJson;
+	}
+
+	/**
+	 * Files of the project as sent to the IDE, the same array until something
+	 * changes in the project folder
+	 */
+	public synchronized JSONArray listFilesJSON(Project p) {
+		Folder folder = getFolder(p.getType());
+		Entry entry = folder != null ? folder.projects.get(p.getName()) : null;
+		if (entry == null) {
+			return new JSONArray();
+		}
+
+		entry.loadFiles();
+		if (entry.filesJson == null) {
+			JSONArray array = new JSONArray();
+			for (FileInfo info : entry.files.values()) {
+				JSONObject jsonObject = new JSONObject();
+				try {
+					jsonObject.put("file_name", info.name);
+					jsonObject.put("file_size", info.size / 1024);
+					jsonObject.put("file_modified", info.lastModified);
+				} catch (JSONException e) {
+					e.printStackTrace();
+				}
+				array.put(jsonObject);
+			}
+			entry.filesJson = array;
+		}
+		return entry.filesJson;
+	}
+
+}
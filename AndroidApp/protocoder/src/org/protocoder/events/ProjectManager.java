@@ -28,20 +28,17 @@
 
 package org.protocoder.events;
 
-import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.HashMap;
 
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 import org.protocoder.AppSettings;
 import org.protocoder.base.BaseMainApp;
+import org.protocoder.utils.AssetInstaller;
 import org.protocoder.utils.FileIO;
 
 import android.content.Context;
@@ -57,6 +54,10 @@ public class ProjectManager {
 	String mainFileStr = "main.js";
 	private String remoteIP;
 
+	private final ProjectIndex index = new ProjectIndex();
+	// one per main file, the code of a project is written by one at a time
+	private final HashMap<String, Object> locks = new HashMap<String, Object>();
+
 	private static ProjectManager INSTANCE;
 
 	public static ProjectManager getInstance() {
@@ -72,67 +73,139 @@ public class ProjectManager {
 	}
 
 	public void install(final Context c, final String assetsName, final InstallListener l) {
+		install(c, assetsName, l, null);
+	}
+
+	/**
+	 * Copies the folder of the assets to the storage, only the files that
+	 * changed since the last install. The progress is told from the threads
+	 * copying
+	 */
+	public void install(final Context c, final String assetsName, final InstallListener l,
+			final AssetInstaller.ProgressListener progress) {
 
 		new Thread(new Runnable() {
 
 			@Override
 			public void run() {
+				Context app = c.getApplicationContext();
 				File dir = new File(BaseMainApp.baseDir + "/" + assetsName);
-				FileIO.deleteDir(dir);
-				FileIO.copyFileOrDir(c.getApplicationContext(), assetsName);
+				// the record stays out of the folder, everything in it is a project
+				File record = new File(app.getFilesDir(), assetsName + ".installed");
+				new AssetInstaller(app.getAssets(), assetsName, dir, record).install(progress);
+				index.reload(PROJECT_EXAMPLE);
 				l.onReady();
 			}
 		}).start();
 	}
 
 	public String getCode(Project p) {
-		String out = null;
-		File f = new File(p.getStoragePath() + File.separator + mainFileStr);
-		try {
-			InputStream in = new FileInputStream(f);
-			ByteArrayOutputStream buf = new ByteArrayOutputStream();
-			int i;
-			try {
-				i = in.read();
-				while (i != -1) {
-					buf.write(i);
-					i = in.read();
+		return CodeStore.get().read(getMainFile(p));
+	}
+
+	/**
+	 * Hash of main.js, the IDE can compare it with its own copy
+	 */
+	public String getCodeHash(Project p) {
+		return CodeStore.get().getHash(getMainFile(p));
+	}
+
+	public File getMainFile(Project p) {
+		return new File(p.getStoragePath() + File.separator + mainFileStr);
+	}
+
+	/**
+	 * Returns false when the project already had the same code, a failed write
+	 * throws
+	 */
+	public boolean writeNewCode(Project p, String code) throws IOException {
+		boolean changed;
+		synchronized (getLock(p)) {
+			changed = writeNewFile(getMainFile(p).getPath(), code);
+		}
+		if (changed) {
+			index.update(p.getType(), p.getName());
+		}
+		return changed;
+	}
+
+	/**
+	 * Result of updateCode
+	 */
+	public static class CodeUpdate {
+		// the edits were made on another version, nothing was written
+		public boolean mismatch;
+		public boolean changed;
+		public CodeChange change;
+		// hash of the code the project has now
+		public String hash;
+	}
+
+	/**
+	 * Writes the code sent by the IDE, either the whole code or the edits made
+	 * on the version with baseHash. Checking the version and writing happen
+	 * under the lock of the project, so two edits made on the same version
+	 * can't both be applied
+	 */
+	public CodeUpdate updateCode(Project p, String code, String baseHash, JSONArray edits) throws IOException,
+			JSONException {
+		CodeUpdate update = new CodeUpdate();
+
+		synchronized (getLock(p)) {
+			String oldCode = getCode(p);
+			String newCode = code;
+			if (edits != null) {
+				newCode = patchCode(p, oldCode, baseHash, edits);
+				if (newCode == null) {
+					update.mismatch = true;
+					update.hash = getCodeHash(p);
+					return update;
 				}
-				in.close();
-			} catch (IOException ex) {
 			}
-			out = buf.toString();
-		} catch (IOException e) {
-			e.printStackTrace();
-			// Log.e("Project", e.toString());
+
+			update.change = CodeChange.between(oldCode, newCode);
+			update.changed = writeNewCode(p, newCode);
+			update.hash = getCodeHash(p);
 		}
-		return out;
+
+		return update;
 	}
 
-	public void writeNewCode(Project p, String code) {
-		writeNewFile(p.getStoragePath() + File.separator + mainFileStr, code);
+	private Object getLock(Project p) {
+		String path = getMainFile(p).getAbsolutePath();
+		synchronized (locks) {
+			Object lock = locks.get(path);
+			if (lock == null) {
+				lock = new Object();
+				locks.put(path, lock);
+			}
+			return lock;
+		}
 	}
 
-	public void writeNewFile(String file, String code) {
-		File f = new File(file);
+	/**
+	 * Applies the edits sent by the IDE to the code they were made on. Returns
+	 * null when the project has another version or the edits don't fit, the
+	 * IDE has to send the whole code then
+	 */
+	private String patchCode(Project p, String code, String baseHash, JSONArray edits) throws JSONException {
+		if (code == null || baseHash == null || !baseHash.equals(getCodeHash(p))) {
+			Log.d(TAG, "patch for another version of " + p.getName());
+			return null;
+		}
 
 		try {
-			if (!f.exists()) {
-				f.createNewFile();
-			}
-			FileOutputStream fo = new FileOutputStream(f);
-			byte[] data = code.getBytes();
-			fo.write(data);
-			fo.flush();
-			fo.close();
-		} catch (FileNotFoundException ex) {
-			// Log.e("Project", ex.toString());
-		} catch (IOException e) {
-			e.printStackTrace();
-			// Log.e("Project", e.toString());
+			return CodeChange.apply(code, edits);
+		} catch (IllegalArgumentException e) {
+			Log.d(TAG, "cannot patch " + p.getName() + " " + e.getMessage());
+			return null;
 		}
 	}
 
+	public boolean writeNewFile(String file, String code) throws IOException {
+		return CodeStore.get().write(new File(file), code);
+	}
+
 	public JSONObject toJson(Project p) {
 		JSONObject json = new JSONObject();
 		try {
@@ -144,57 +217,37 @@ public class ProjectManager {
 		return json;
 	}
 
-	public ArrayList<Project> list(int type) {
-		ArrayList<Project> projects = new ArrayList<Project>();
-		File dir = null;
-
-		// Log.d(TAG, "project type" + type + " " + PROJECT_USER_MADE + " " +
-		// PROJECT_EXAMPLE);
-
-		switch (type) {
-		case PROJECT_USER_MADE:
-			dir = new File(BaseMainApp.projectsDir);
-			if (!dir.exists()) {
-				dir.mkdir();
-			}
-
-			break;
-
-		case PROJECT_EXAMPLE:
-			dir = new File(BaseMainApp.examplesDir);
-			if (!dir.exists()) {
-				dir.mkdir();
-			}
+	public ProjectIndex getIndex() {
+		return index;
+	}
 
-			break;
-		default:
-			break;
+	public ArrayList<Project> list(int type) {
+		if (type != PROJECT_USER_MADE && type != PROJECT_EXAMPLE) {
+			return new ArrayList<Project>();
 		}
 
-		File[] all_projects = dir.listFiles();
+		return index.list(type);
+	}
 
-		for (File file : all_projects) {
-			String projectURL = file.getAbsolutePath();
-			String projectName = file.getName();
-			// Log.d("PROJECT", "Adding project named " + projectName);
-			boolean containsReadme = false;
-			boolean containsTutorial = false;
-			projects.add(new Project(projectName, projectURL, type, containsReadme, containsTutorial));
+	public JSONArray listJSON(int type) {
+		if (type != PROJECT_USER_MADE && type != PROJECT_EXAMPLE) {
+			return new JSONArray();
 		}
 
-		return projects;
+		return index.listJSON(type);
 	}
 
 	public Project get(String name, int type) {
 		Log.d(TAG, "looking for project " + name + " " + type);
-		ArrayList<Project> projects = list(type);
-		for (Project project : projects) {
-			if (name.equals(project.getName())) {
-				setCurrentProject(project);
-				return project;
-			}
+		if (type != PROJECT_USER_MADE && type != PROJECT_EXAMPLE) {
+			return null;
 		}
-		return null;
+
+		Project project = index.get(name, type);
+		if (project != null) {
+			setCurrentProject(project);
+		}
+		return project;
 	}
 
 	public Project addNewProject(Context c, String newProjectName, String fileName, int type) {
@@ -206,6 +259,7 @@ public class ProjectManager {
 		String file = FileIO.writeStringToFile(BaseMainApp.projectsDir, newProjectName, newTemplateCode);
 
 		Project newProject = new Project(newProjectName, file, type);
+		index.update(type, newProjectName);
 
 		return newProject;
 
@@ -225,27 +279,7 @@ public class ProjectManager {
 	}
 
 	public JSONArray listFilesInProjectJSON(Project p) {
-
-		File f = new File(p.getStoragePath());
-		File file[] = f.listFiles();
-		Log.d("Files", "Size: " + file.length);
-
-		JSONArray array = new JSONArray();
-		for (File element : file) {
-
-			JSONObject jsonObject = new JSONObject();
-			try {
-				jsonObject.put("file_name", element.getName());
-				jsonObject.put("file_size", element.length() / 1024);
-			} catch (JSONException e) {
-				e.printStackTrace();
-			}
-
-			array.put(jsonObject);
-			Log.d("Files", "FileName:" + element.getName());
-		}
-
-		return array;
+		return index.listFilesJSON(p);
 	}
 
 	// TODO fix this hack
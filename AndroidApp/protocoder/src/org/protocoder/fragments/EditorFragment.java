@@ -28,6 +28,8 @@
 
 package org.protocoder.fragments;
 
+import java.io.IOException;
+
 import org.apache.commons.lang3.StringUtils;
 import org.protocoder.R;
 import org.protocoder.base.BaseFragment;
@@ -303,7 +305,13 @@ public class EditorFragment extends BaseFragment {
 	}
 
 	public void save() {
-		ProjectManager.getInstance().writeNewCode(currentProject, getCode());
+		try {
+			ProjectManager.getInstance().writeNewCode(currentProject, getCode());
+		} catch (IOException e) {
+			e.printStackTrace();
+			Toast.makeText(getActivity(), "Cannot save " + currentProject.getName(), Toast.LENGTH_SHORT).show();
+			return;
+		}
 		Toast.makeText(getActivity(), "Saving " + currentProject.getName() + "...", Toast.LENGTH_SHORT).show();
 
 	}
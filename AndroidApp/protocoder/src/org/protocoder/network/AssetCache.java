@@ -0,0 +1,337 @@
+/*
+ * Protocoder 
+ * A prototyping platform for Android devices 
+ * 
+ * Victor Diaz Barrales victormdb@gmail.com
+ *
+ * Copyright (C) 2013 Motorola Mobility LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions: 
+ * 
+ * The above copyright notice and this permission notice shall be included in all 
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN 
+ * THE SOFTWARE.
+ * 
+ */
+
+package org.protocoder.network;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+import android.content.Context;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager.NameNotFoundException;
+import android.content.res.AssetManager;
+import android.util.Log;
+
+/**
+ * Keeps the assets of the web IDE in memory with their gzip version. The
+ * assets only change with the app so the app version is the validator, the
+ * gzip files and the generated content are also kept in the cache folder
+ * until the app is updated
+ */
+public class AssetCache {
+
+	private static final String TAG = "AssetCache";
+
+	// bytes kept in memory, bigger assets are streamed every time
+	private static final int MAX_SIZE = 4 * 1024 * 1024;
+	private static final int MAX_ENTRY_SIZE = 512 * 1024;
+	// not worth compressing below this
+	private static final int MIN_GZIP_SIZE = 256;
+
+	private final AssetManager assets;
+	private final File gzipDir;
+	private final String version;
+	private final long lastModified;
+	private int size;
+
+	private final LinkedHashMap<String, Asset> cache = new LinkedHashMap<String, Asset>(32, 0.75f, true);
+	private final Object generating = new Object();
+
+	public static class Asset {
+		public String path;
+		public byte[] data;
+		public byte[] gzip;
+		public String etag;
+		public long lastModified;
+
+		int size() {
+			return data.length + (gzip != null ? gzip.length : 0);
+		}
+	}
+
+	public AssetCache(Context c) {
+		assets = c.getAssets();
+
+		long updated = 0;
+		String v = "0";
+		try {
+			PackageInfo info = c.getPackageManager().getPackageInfo(c.getPackageName(), 0);
+			updated = info.lastUpdateTime;
+			v = info.versionCode + "-" + Long.toHexString(updated);
+		} catch (NameNotFoundException e) {
+			e.printStackTrace();
+		}
+		version = v;
+		// HTTP dates have no milliseconds
+		lastModified = updated / 1000 * 1000;
+
+		// gzip files of previous versions are not needed anymore
+		File webappCache = new File(c.getCacheDir(), "webapp");
+		gzipDir = new File(webappCache, version);
+		File[] old = webappCache.listFiles();
+		if (old != null) {
+			for (File f : old) {
+				if (!f.getName().equals(version)) {
+					deleteRecursive(f);
+				}
+			}
+		}
+	}
+
+	public String getVersion() {
+		return version;
+	}
+
+	public long getLastModified() {
+		return lastModified;
+	}
+
+	/**
+	 * Validator of the asset, the same for every version of it
+	 */
+	public String getETag(String path) {
+		return "\"" + version + "-" + Integer.toHexString(path.hashCode()) + "\"";
+	}
+
+	/**
+	 * Returns the cached asset, null if it is too big to be cached. Throws
+	 * IOException if it doesn't exist
+	 */
+	public Asset get(String path, boolean compressible) throws IOException {
+		synchronized (cache) {
+			Asset asset = cache.get(path);
+			if (asset != null) {
+				return asset;
+			}
+		}
+
+		// loaded outside of the lock, two requests may load the same asset
+		byte[] data = read(assets.open(path));
+		if (data == null) {
+			return null;
+		}
+
+		Asset asset = new Asset();
+		asset.path = path;
+		asset.data = data;
+		asset.etag = getETag(path);
+		asset.lastModified = lastModified;
+		if (compressible && data.length >= MIN_GZIP_SIZE) {
+			asset.gzip = gzip(path, data);
+		}
+
+		put(asset);
+
+		return asset;
+	}
+
+	private void put(Asset asset) {
+		synchronized (cache) {
+			Asset previous = cache.put(asset.path, asset);
+			if (previous != null) {
+				size -= previous.size();
+			}
+			size += asset.size();
+
+			Iterator<Map.Entry<String, Asset>> it = cache.entrySet().iterator();
+			while (size > MAX_SIZE && it.hasNext()) {
+				Asset eldest = it.next().getValue();
+				if (eldest == asset) {
+					continue;
+				}
+				size -= eldest.size();
+				it.remove();
+			}
+		}
+	}
+
+	public interface Generator {
+		public byte[] generate() throws Exception;
+	}
+
+	/**
+	 * Content made by the app that only changes with it, such as the
+	 * documentation. It is generated once per app version and served as an
+	 * asset
+	 */
+	public Asset getGenerated(String path, Generator generator) throws IOException {
+		// one at a time, two requests would generate and write the same file
+		synchronized (generating) {
+			synchronized (cache) {
+				Asset asset = cache.get(path);
+				if (asset != null) {
+					return asset;
+				}
+			}
+
+			File f = new File(gzipDir, path);
+			byte[] data = null;
+			if (f.exists()) {
+				try {
+					data = read(new FileInputStream(f), Integer.MAX_VALUE);
+				} catch (IOException e) {
+					f.delete();
+				}
+			}
+			if (data == null) {
+				try {
+					data = generator.generate();
+				} catch (Exception e) {
+					throw new IOException("cannot generate " + path + " " + e);
+				}
+				writeFile(f, data);
+			}
+
+			Asset asset = new Asset();
+			asset.path = path;
+			asset.data = data;
+			asset.etag = getETag(path);
+			asset.lastModified = lastModified;
+			if (data.length >= MIN_GZIP_SIZE) {
+				asset.gzip = gzip(path, data);
+			}
+			put(asset);
+
+			return asset;
+		}
+	}
+
+	public void clear() {
+		synchronized (cache) {
+			cache.clear();
+			size = 0;
+		}
+	}
+
+	/**
+	 * Gzip version of the asset, compressed once per app version. Null when
+	 * it is not smaller
+	 */
+	private byte[] gzip(String path, byte[] data) {
+		File f = new File(gzipDir, path + ".gz");
+		if (f.exists()) {
+			try {
+				return read(new FileInputStream(f), Integer.MAX_VALUE);
+			} catch (IOException e) {
+				f.delete();
+			}
+		}
+
+		byte[] compressed;
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream(data.length / 2);
+			GZIPOutputStream out = new GZIPOutputStream(bytes);
+			out.write(data);
+			out.close();
+			compressed = bytes.toByteArray();
+		} catch (IOException e) {
+			return null;
+		}
+
+		if (compressed.length >= data.length) {
+			return null;
+		}
+
+		writeFile(f, compressed);
+
+		return compressed;
+	}
+
+	/**
+	 * Writes next to the file and renames it so a half written file is never
+	 * read
+	 */
+	private void writeFile(File f, byte[] data) {
+		File tmp = new File(f.getPath() + ".tmp");
+		tmp.getParentFile().mkdirs();
+		OutputStream out = null;
+		try {
+			out = new FileOutputStream(tmp);
+			out.write(data);
+			out.close();
+			out = null;
+			if (!tmp.renameTo(f)) {
+				tmp.delete();
+			}
+		} catch (IOException e) {
+			Log.d(TAG, "cannot keep " + f + " " + e);
+			tmp.delete();
+		} finally {
+			if (out != null) {
+				try {
+					out.close();
+				} catch (IOException e) {
+				}
+			}
+		}
+	}
+
+	private static byte[] read(InputStream in) throws IOException {
+		return read(in, MAX_ENTRY_SIZE);
+	}
+
+	/**
+	 * Reads the whole stream, null if it is bigger than max
+	 */
+	private static byte[] read(InputStream in, int max) throws IOException {
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(32, Math.min(in.available(), max)));
+			byte[] buf = new byte[8192];
+			int read;
+			while ((read = in.read(buf)) > 0) {
+				out.write(buf, 0, read);
+				if (out.size() > max) {
+					return null;
+				}
+			}
+			return out.toByteArray();
+		} finally {
+			in.close();
+		}
+	}
+
+	private static void deleteRecursive(File f) {
+		File[] children = f.listFiles();
+		if (children != null) {
+			for (File child : children) {
+				deleteRecursive(child);
+			}
+		}
+		f.delete();
+	}
+
+}
@@ -30,13 +30,21 @@ package org.protocoder.network;
 
 import java.net.InetSocketAddress;
 import java.net.UnknownHostException;
-import java.util.ArrayList;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.java_websocket.WebSocket;
+import org.java_websocket.WebSocketImpl;
 import org.java_websocket.drafts.Draft;
+import org.java_websocket.framing.Framedata;
 import org.java_websocket.handshake.ClientHandshake;
 import org.java_websocket.server.WebSocketServer;
 import org.json.JSONException;
@@ -50,15 +58,144 @@ public class CustomWebsocketServer extends WebSocketServer {
 	private static int counter = 0;
 	private static final String TAG = "WebSocketServer";
 	private static Context ctx;
-	private List<WebSocket> connections = new ArrayList<WebSocket>();
 	private static HashMap<String, WebSocketListener> listeners = new HashMap<String, WebSocketListener>();;
 
+	// what happens to a message when a connection is behind, by type/action
+	public static final int POLICY_DROP_OLDEST = 0;
+	public static final int POLICY_COALESCE = 1;
+	// losing one leaves the connection out of date, it is told to the
+	// connection listeners once the connection caught up
+	public static final int POLICY_RESYNC = 2;
+
+	// messages waiting per connection, and frames handed to its socket
+	private static final int MAX_QUEUED = 256;
+	private static final int MAX_IN_FLIGHT = 32;
+	// how often a connection that is behind is looked at again
+	private static final int RETRY_INTERVAL = 5;
+
+	private final ConcurrentHashMap<WebSocket, Outbox> connections = new ConcurrentHashMap<WebSocket, Outbox>();
+	private final ConcurrentHashMap<String, Integer> policies = new ConcurrentHashMap<String, Integer>();
+	private final Object signal = new Object();
+	private boolean signaled;
+	private Thread sender;
+	private final AtomicInteger dropped = new AtomicInteger();
+
+	/**
+	 * Encoded message, the frames are shared by all the connections with the
+	 * same draft
+	 */
+	static class Message {
+		final String key;
+		final boolean resync;
+		ByteBuffer[] frames;
+
+		Message(String key, boolean resync, ByteBuffer[] frames) {
+			this.key = key;
+			this.resync = resync;
+			this.frames = frames;
+		}
+	}
+
+	/**
+	 * Messages of a connection waiting to be written. A connection that
+	 * doesn't keep up loses its oldest messages or gets only the last one of
+	 * each coalesced type, instead of holding everybody else
+	 */
+	class Outbox {
+		private final ArrayDeque<Message> queue = new ArrayDeque<Message>();
+		private final HashMap<String, Message> latest = new HashMap<String, Message>();
+		// a message that needs a resync was dropped
+		private boolean lost;
+
+		synchronized void offer(String key, boolean resync, ByteBuffer[] frames) {
+			if (key != null) {
+				Message waiting = latest.get(key);
+				if (waiting != null) {
+					waiting.frames = frames;
+					return;
+				}
+			}
+
+			if (queue.size() >= MAX_QUEUED) {
+				Message old = queue.removeFirst();
+				if (old.key != null) {
+					latest.remove(old.key);
+				}
+				lost |= old.resync;
+				dropped.incrementAndGet();
+			}
+
+			Message msg = new Message(key, resync, frames);
+			queue.addLast(msg);
+			if (key != null) {
+				latest.put(key, msg);
+			}
+		}
+
+		/**
+		 * Hands messages to the socket while it is not behind, returns how
+		 * many
+		 */
+		synchronized int pump(WebSocket conn) {
+			int sent = 0;
+			// the server only makes WebSocketImpl connections, the frames are
+			// already encoded for its queue
+			WebSocketImpl impl = (WebSocketImpl) conn;
+			while (!queue.isEmpty() && impl.outQueue.size() < MAX_IN_FLIGHT) {
+				Message msg = queue.removeFirst();
+				if (msg.key != null) {
+					latest.remove(msg.key);
+				}
+				for (ByteBuffer frame : msg.frames) {
+					impl.outQueue.offer(frame.duplicate());
+				}
+				sent++;
+			}
+			if (sent > 0) {
+				onWriteDemand(impl);
+			}
+
+			return sent;
+		}
+
+		synchronized int size() {
+			return queue.size();
+		}
+
+		/**
+		 * True once if messages were lost and the queue is empty again, what
+		 * is sent from now on is not dropped right away
+		 */
+		synchronized boolean takeLost() {
+			if (!lost || !queue.isEmpty()) {
+				return false;
+			}
+			lost = false;
+			return true;
+		}
+	}
+
 	public interface WebSocketListener {
 
 		public void onUpdated(JSONObject jsonObject);
 
 	}
 
+	/**
+	 * Told about every new connection, to send it the current state, and
+	 * about the connections that lost messages with POLICY_RESYNC, to send it
+	 * again
+	 */
+	public interface ConnectionListener {
+
+		public void onConnected(WebSocket conn);
+
+		public void onResync(WebSocket conn);
+
+	}
+
+	private final CopyOnWriteArrayList<ConnectionListener> connectionListeners = new CopyOnWriteArrayList<ConnectionListener>();
+
 	// Singleton (one app view, different URLs)
 	public static CustomWebsocketServer getInstance(Context aCtx, int port, Draft d) throws UnknownHostException {
 		if (inst == null) {
@@ -78,18 +215,41 @@ public class CustomWebsocketServer extends WebSocketServer {
 	public CustomWebsocketServer(Context aCtx, int port, Draft d) throws UnknownHostException {
 		super(new InetSocketAddress(port), Collections.singletonList(d));
 		ctx = aCtx;
+		setDefaultPolicies();
 		Log.d(TAG, "Launched websocket server at on port " + aCtx);
 	}
 
 	public CustomWebsocketServer(InetSocketAddress address, Draft d) {
 		super(address, Collections.singletonList(d));
+		setDefaultPolicies();
+	}
+
+	// only the last profile matters, the dashboard changes build on each
+	// other so a tab that lost one gets the whole dashboard again
+	private void setDefaultPolicies() {
+		setPolicy("profiler", "snapshot", POLICY_COALESCE);
+		setPolicy("widget", "add", POLICY_RESYNC);
+		setPolicy("widget", "delta", POLICY_RESYNC);
+		setPolicy("widget", "snapshot", POLICY_RESYNC);
+	}
+
+	/**
+	 * With POLICY_COALESCE a connection that is behind only gets the last
+	 * message of the type and action for each widget id. With POLICY_RESYNC
+	 * the oldest are dropped as usual but the connection listeners are told
+	 */
+	public void setPolicy(String type, String action, int policy) {
+		policies.put(type + "/" + action, policy);
 	}
 
 	@Override
 	public void onOpen(WebSocket aConn, ClientHandshake handshake) {
 		counter++;
 		Log.d(TAG, "New websocket connection " + counter);
-		connections.add(aConn);
+		connections.put(aConn, new Outbox());
+		for (ConnectionListener l : connectionListeners) {
+			l.onConnected(aConn);
+		}
 
 	}
 
@@ -105,13 +265,175 @@ public class CustomWebsocketServer extends WebSocketServer {
 		ex.printStackTrace();
 	}
 
+	/**
+	 * Sends the message to every connection. It is turned into text and
+	 * encoded once, then queued per connection and written by the sender
+	 * thread so a slow browser doesn't hold the caller
+	 */
 	public void send(JSONObject obj) {
+		if (connections.isEmpty()) {
+			return;
+		}
 
-		for (WebSocket sock : connections) {
-			if (sock.isOpen())
-				sock.send(obj.toString());
+		String text = obj.toString();
+		String type = obj.optString("type") + "/" + obj.optString("action");
+		String key = null;
+		int policy = getPolicy(type);
+		if (policy == POLICY_COALESCE) {
+			JSONObject values = obj.optJSONObject("values");
+			key = values != null ? type + "/" + values.optString("id") : type;
 		}
 
+		broadcast(key, policy == POLICY_RESYNC, text, null);
+	}
+
+	/**
+	 * Sends the message only to the connection, after what is already queued
+	 * for it
+	 */
+	public void send(WebSocket conn, JSONObject obj) {
+		Outbox outbox = connections.get(conn);
+		if (outbox == null || !conn.isOpen()) {
+			return;
+		}
+
+		boolean resync = getPolicy(obj.optString("type") + "/" + obj.optString("action")) == POLICY_RESYNC;
+		outbox.offer(null, resync, encode(conn.getDraft(), obj.toString(), null));
+		wakeSender();
+	}
+
+	public void addConnectionListener(ConnectionListener l) {
+		connectionListeners.addIfAbsent(l);
+	}
+
+	public void removeConnectionListener(ConnectionListener l) {
+		connectionListeners.remove(l);
+	}
+
+	/**
+	 * Sends a binary message to every connection, the same way as the json
+	 * ones. The type and action only choose the policy
+	 */
+	public void send(String type, String action, byte[] data) {
+		if (connections.isEmpty()) {
+			return;
+		}
+
+		String key = null;
+		int policy = getPolicy(type + "/" + action);
+		if (policy == POLICY_COALESCE) {
+			key = type + "/" + action;
+		}
+
+		broadcast(key, policy == POLICY_RESYNC, null, data);
+	}
+
+	private int getPolicy(String type) {
+		Integer policy = policies.get(type);
+		return policy != null ? policy : POLICY_DROP_OLDEST;
+	}
+
+	private void broadcast(String key, boolean resync, String text, byte[] data) {
+		HashMap<Class<?>, ByteBuffer[]> encoded = new HashMap<Class<?>, ByteBuffer[]>();
+		for (Map.Entry<WebSocket, Outbox> e : connections.entrySet()) {
+			WebSocket conn = e.getKey();
+			if (!conn.isOpen()) {
+				continue;
+			}
+
+			Draft draft = conn.getDraft();
+			ByteBuffer[] frames = encoded.get(draft.getClass());
+			if (frames == null) {
+				frames = encode(draft, text, data);
+				encoded.put(draft.getClass(), frames);
+			}
+			e.getValue().offer(key, resync, frames);
+		}
+
+		wakeSender();
+	}
+
+	private ByteBuffer[] encode(Draft draft, String text, byte[] data) {
+		List<Framedata> frames = text != null ? draft.createFrames(text, false) : draft.createFrames(
+				ByteBuffer.wrap(data), false);
+		ByteBuffer[] out = new ByteBuffer[frames.size()];
+		for (int i = 0; i < out.length; i++) {
+			out[i] = draft.createBinaryFrame(frames.get(i));
+		}
+		return out;
+	}
+
+	private void wakeSender() {
+		startSender();
+		synchronized (signal) {
+			signaled = true;
+			signal.notify();
+		}
+	}
+
+	private synchronized void startSender() {
+		if (sender != null) {
+			return;
+		}
+
+		sender = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				while (true) {
+					boolean behind = false;
+					boolean progress = false;
+					Iterator<Map.Entry<WebSocket, Outbox>> it = connections.entrySet().iterator();
+					while (it.hasNext()) {
+						Map.Entry<WebSocket, Outbox> e = it.next();
+						if (e.getKey().isClosed()) {
+							it.remove();
+						} else if (e.getKey().isOpen()) {
+							progress |= e.getValue().pump(e.getKey()) > 0;
+							behind |= e.getValue().size() > 0;
+							if (e.getValue().takeLost()) {
+								for (ConnectionListener l : connectionListeners) {
+									l.onResync(e.getKey());
+								}
+							}
+						}
+					}
+
+					try {
+						synchronized (signal) {
+							// the sockets that took messages may take more
+							// right away, the others are waited for a bit
+							if (behind && progress) {
+								signaled = false;
+								continue;
+							}
+							if (!signaled) {
+								signal.wait(behind ? RETRY_INTERVAL : 0);
+							}
+							signaled = false;
+						}
+					} catch (InterruptedException e) {
+						return;
+					}
+				}
+			}
+		}, TAG);
+		sender.setDaemon(true);
+		sender.start();
+	}
+
+	/**
+	 * Messages that were dropped because a connection was behind
+	 */
+	public int getDropped() {
+		return dropped.get();
+	}
+
+	public int getQueued() {
+		int queued = 0;
+		for (Outbox outbox : connections.values()) {
+			queued += outbox.size();
+		}
+		return queued;
 	}
 
 	@Override
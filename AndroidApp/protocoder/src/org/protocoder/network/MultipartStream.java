@@ -0,0 +1,199 @@
+/*
+ * Protocoder 
+ * A prototyping platform for Android devices 
+ * 
+ * Victor Diaz Barrales victormdb@gmail.com
+ *
+ * Copyright (C) 2013 Motorola Mobility LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions: 
+ * 
+ * The above copyright notice and this permission notice shall be included in all 
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN 
+ * THE SOFTWARE.
+ * 
+ */
+
+package org.protocoder.network;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Locale;
+import java.util.Properties;
+
+/**
+ * Reads a multipart/form-data body part by part as it arrives. The content
+ * of each part is copied to the given stream, only a fixed buffer is kept in
+ * memory whatever the size of the upload
+ */
+class MultipartStream {
+
+	private static final int BUFFER_SIZE = 16 * 1024;
+	private static final int MAX_HEADER_LINE = 8192;
+
+	private final InputStream in;
+	// CRLF--boundary, what ends the content of a part
+	private final byte[] delimiter;
+	private final byte[] buf;
+	private int head;
+	private int tail;
+	private boolean started;
+	private boolean finished;
+
+	MultipartStream(InputStream in, String boundary) {
+		this.in = in;
+		this.delimiter = ("\r\n--" + boundary).getBytes();
+		this.buf = new byte[Math.max(BUFFER_SIZE, delimiter.length * 2)];
+	}
+
+	/**
+	 * Moves to the next part and reads its headers, names in lowercase.
+	 * Returns false after the last one
+	 */
+	boolean nextPart(Properties headers) throws IOException {
+		if (finished) {
+			return false;
+		}
+
+		if (!started) {
+			// the first boundary has no CRLF in front, adding one the preamble
+			// is skipped as if it was a part
+			started = true;
+			buf[0] = '\r';
+			buf[1] = '\n';
+			tail = 2;
+			readPart(null);
+		}
+
+		// after the boundary comes CRLF or -- for the last one
+		if (!ensure(2)) {
+			throw new IOException("Multipart body ended without its last boundary");
+		}
+		if (buf[head] == '-' && buf[head + 1] == '-') {
+			finished = true;
+			return false;
+		}
+		readLine();
+
+		headers.clear();
+		String line = readLine();
+		while (line.length() > 0) {
+			int p = line.indexOf(':');
+			if (p != -1) {
+				headers.put(line.substring(0, p).trim().toLowerCase(Locale.US), line.substring(p + 1).trim());
+			}
+			line = readLine();
+		}
+
+		return true;
+	}
+
+	/**
+	 * Copies the content of the current part, null skips it
+	 */
+	void readPart(OutputStream out) throws IOException {
+		while (true) {
+			int found = indexOfDelimiter();
+			if (found >= 0) {
+				if (out != null) {
+					out.write(buf, head, found - head);
+				}
+				head = found + delimiter.length;
+				return;
+			}
+
+			// everything except what could be the start of the delimiter
+			int safe = Math.max(head, tail - delimiter.length + 1);
+			if (out != null) {
+				out.write(buf, head, safe - head);
+			}
+			head = safe;
+
+			if (fill() == 0) {
+				throw new IOException("Multipart body ended in the middle of a part");
+			}
+		}
+	}
+
+	private int indexOfDelimiter() {
+		for (int i = head; i <= tail - delimiter.length; i++) {
+			if (buf[i] == delimiter[0] && matches(i)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private boolean matches(int pos) {
+		for (int j = 1; j < delimiter.length; j++) {
+			if (buf[pos + j] != delimiter[j]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private String readLine() throws IOException {
+		StringBuilder line = new StringBuilder();
+		while (true) {
+			if (!ensure(1)) {
+				throw new IOException("Multipart body ended in the headers");
+			}
+			byte b = buf[head++];
+			if (b == '\n') {
+				break;
+			}
+			if (b != '\r') {
+				line.append((char) (b & 0xff));
+			}
+			if (line.length() > MAX_HEADER_LINE) {
+				throw new IOException("Multipart header too long");
+			}
+		}
+		return line.toString();
+	}
+
+	private boolean ensure(int n) throws IOException {
+		while (tail - head < n) {
+			if (fill() == 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Moves what is left to the start of the buffer and reads more, returns
+	 * the bytes read
+	 */
+	private int fill() throws IOException {
+		if (head > 0) {
+			System.arraycopy(buf, head, buf, 0, tail - head);
+			tail -= head;
+			head = 0;
+		}
+		if (tail == buf.length) {
+			return 0;
+		}
+		int read = in.read(buf, tail, buf.length - tail);
+		if (read <= 0) {
+			return 0;
+		}
+		tail += read;
+		return read;
+	}
+
+}
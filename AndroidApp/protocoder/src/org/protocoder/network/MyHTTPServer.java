@@ -28,19 +28,26 @@
 
 package org.protocoder.network;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.lang.ref.WeakReference;
-import java.util.ArrayList;
+import java.util.Date;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.commons.lang3.StringEscapeUtils;
 import org.json.JSONArray;
+import org.json.JSONException;
 import org.json.JSONObject;
+import org.protocoder.AppSettings;
 import org.protocoder.apidoc.APIManager;
+import org.protocoder.apprunner.AppRunnerSettings;
 import org.protocoder.apprunner.api.JDevice;
 import org.protocoder.apprunner.api.JBoards;
 import org.protocoder.apprunner.api.JConsole;
@@ -84,6 +91,7 @@ import org.protocoder.events.Events.ProjectEvent;
 import org.protocoder.events.Project;
 import org.protocoder.events.ProjectManager;
 import org.protocoder.utils.FileIO;
+import org.protocoder.utils.ZipStreamer;
 
 import android.content.Context;
 import android.content.res.AssetManager;
@@ -98,6 +106,11 @@ public class MyHTTPServer extends NanoHTTPD {
 	private final WeakReference<Context> ctx;
 	private final String WEBAPP_DIR = "webapp/";
 	String projectURLPrefix = "/apps";
+	private final AssetCache assetCache;
+	// read by the workers, which are already running when the commands are
+	// added
+	private final ConcurrentHashMap<String, Command> commands = new ConcurrentHashMap<String, Command>();
+	private String documentation;
 
 	private static final Map<String, String> MIME_TYPES = new HashMap<String, String>() {
 		{
@@ -146,8 +159,10 @@ public class MyHTTPServer extends NanoHTTPD {
 	}
 
 	public MyHTTPServer(Context aCtx, int port) throws IOException {
-		super(port);
+		super(port, AppSettings.httpWorkers, AppSettings.httpQueueSize);
 		ctx = new WeakReference<Context>(aCtx);
+		assetCache = new AssetCache(aCtx);
+		addCommands();
 		String ip = NetworkUtils.getLocalIpAddress(aCtx);
 		if (ip == null) {
 			Log.d(TAG, "No IP found. Please connect to a newwork and try again");
@@ -184,254 +199,409 @@ public class MyHTTPServer extends NanoHTTPD {
 
 			}
 
-			// file upload
+			// file upload, the file is already in the project folder
 			if (!files.isEmpty()) {
+				Project p = getUploadProject(parms);
+				File src = new File(files.getProperty("pic").toString());
+				File dst = new File(p.getStoragePath() + "/" + new File(parms.getProperty("pic").toString()).getName());
+				Log.d(TAG, " " + src.toString() + " " + dst.toString());
+
+				if (!src.equals(dst)) {
+					FileIO.copyFile(src, dst);
+				}
+
+				JSONObject data = new JSONObject();
+				data.put("result", "OK");
+
+				return new Response("200", MIME_TYPES.get("txt"), data.toString());
+
+			}
+
+			// webapi
+			String userCmd = uri;
+			String params = "";
+			int equals = uri.indexOf('=');
+			if (equals >= 0) {
+				userCmd = uri.substring(0, equals);
+				params = uri.substring(equals + 1);
+			}
+			Log.d(TAG, "cmd " + userCmd);
+
+			if (userCmd.equals("/batch")) {
+				// several commands posted as a json array in "commands", the
+				// results come back in the same order
+				JSONArray batch = new JSONArray(parms.getProperty("commands", "[]"));
+				JSONArray results = new JSONArray();
+				for (int i = 0; i < batch.length(); i++) {
+					JSONObject obj = batch.getJSONObject(i);
+					results.put(runCommand(obj, toProperties(obj)));
+				}
+				JSONObject data = new JSONObject();
+				data.put("results", results);
+
+				res = new Response("200", MIME_TYPES.get("txt"), data.toString());
+
+			} else if (userCmd.equals("/export")) {
+				res = exportProject(parms);
+
+			} else if (userCmd.contains("cmd")) {
+				JSONObject obj = new JSONObject(params);
+
+				if (obj.optString("cmd").equals("get_documentation")) {
+					// served as is, with its validator
+					return sendAsset(getDocumentationAsset(), MIME_TYPES.get("txt"), header);
+				}
+
+				JSONObject data = runCommand(obj, parms);
+
+				res = new Response("200", MIME_TYPES.get("txt"), data.toString());
+
+			} else if (uri.contains("apps")) {
+				String[] u = uri.split("/");
+
+				// server webui
+			} else {
+
+				res = sendWebAppFile(uri, method, header, parms, files);
+			}
+
+		} catch (Exception e) {
+			Log.d(TAG, "response error " + e.toString());
+		}
+
+		// return serveFile(uri, header, servingFolder, true);
+		return res;
+	}
+
+	/**
+	 * The project as a zip made while it is sent
+	 */
+	private Response exportProject(Properties parms) {
+		int projectType = "example".equals(parms.getProperty("type")) ? ProjectManager.PROJECT_EXAMPLE
+				: ProjectManager.PROJECT_USER_MADE;
+		final Project p = ProjectManager.getInstance().get(parms.getProperty("name", ""), projectType);
+		if (p == null) {
+			return new Response(HTTP_NOTFOUND, MIME_PLAINTEXT, "project not found");
+		}
+
+		Response res = new Response(HTTP_OK, "application/zip", new StreamBody() {
+			@Override
+			public void writeTo(OutputStream out) throws IOException {
+				new ZipStreamer(new File(p.getStoragePath())).writeTo(out);
+			}
+		});
+		res.addHeader("Content-Disposition", "attachment; filename=\"" + p.getName() + ".zip\"");
+		res.addHeader("Cache-Control", "no-cache");
+
+		return res;
+	}
+
+	// classes in the documentation of the IDE
+	private static final Class<?>[] DOCUMENTED_CLASSES = { JDevice.class, JBoards.class, JConsole.class,
+			JDashboard.class, JEditor.class, JFileIO.class, JMedia.class, JNetwork.class, JProtocoder.class,
+			JSensors.class, JUtil.class, JUI.class,
+
+			JIOIO.class, JMakr.class,
+
+			JCamera.class, JPureData.class, JVideo.class,
+
+			JButton.class, JCanvasView.class, JCard.class, JCheckBox.class, JEditText.class, JImageButton.class,
+			JImageView.class, JMap.class, JPlotView.class, JRadioButton.class, JRow.class, JSeekBar.class,
+			JSwitch.class, JTextView.class, JToggleButton.class, JWebView.class,
+
+			JDashboardButton.class, JDashboardHTML.class, JDashboardImage.class, JDashboardLabel.class,
+			JDashboardPlot.class };
+
+	/**
+	 * Response of get_documentation. The classes are only reflected once per
+	 * app version, then the json is kept with the assets
+	 */
+	private AssetCache.Asset getDocumentationAsset() throws IOException {
+		return assetCache.getGenerated("documentation.json", new AssetCache.Generator() {
+			@Override
+			public byte[] generate() throws Exception {
+				// its own manager, the shared one can be in use
+				APIManager apiManager = new APIManager();
+				for (Class<?> c : DOCUMENTED_CLASSES) {
+					apiManager.addClass(c);
+				}
+
+				JSONObject data = new JSONObject();
+				data.put("api", apiManager.getDocumentation());
 
-				String name = parms.getProperty("name").toString();
-				String fileType = parms.getProperty("fileType").toString();
+				return data.toString().getBytes("UTF-8");
+			}
+		});
+	}
+
+	private synchronized String getDocumentation() throws Exception {
+		if (documentation == null) {
+			documentation = new JSONObject(new String(getDocumentationAsset().data, "UTF-8")).getString("api");
+		}
+		return documentation;
+	}
+
+	/**
+	 * Command of the web IDE, it reads its parameters from obj or from the
+	 * posted parms and puts its result in data
+	 */
+	public interface Command {
+		public void run(JSONObject obj, Properties parms, JSONObject data) throws Exception;
+	}
+
+	public void addCommand(String name, Command command) {
+		commands.put(name, command);
+	}
+
+	private JSONObject runCommand(JSONObject obj, Properties parms) throws JSONException {
+		JSONObject data = new JSONObject();
+		String cmd = obj.optString("cmd");
+		Command command = commands.get(cmd);
+		if (command == null) {
+			Log.d(TAG, "unknown command " + cmd);
+			return data;
+		}
+
+		try {
+			command.run(obj, parms, data);
+		} catch (Exception e) {
+			Log.d(TAG, "command error " + e.toString());
+			data.put("error", e.toString());
+		}
+
+		return data;
+	}
+
+	private Properties toProperties(JSONObject obj) {
+		Properties p = new Properties();
+		Iterator<?> keys = obj.keys();
+		while (keys.hasNext()) {
+			String key = (String) keys.next();
+			p.put(key, obj.opt(key).toString());
+		}
+		return p;
+	}
+
+	private void addCommands() {
+		commands.put("fetch_code", new Command() {
+			@Override
+			public void run(JSONObject obj, Properties parms, JSONObject data) throws Exception {
+				Log.d(TAG, "--> fetch code");
+				String name = obj.getString("name");
+				String type = obj.getString("type");
 
 				int projectType = -1;
-				if (fileType.equals("user")) {
+				if (type.equals("user")) {
 					projectType = ProjectManager.PROJECT_USER_MADE;
-				} else if (fileType.equals("example")) {
+				} else if (type.equals("example")) {
 					projectType = ProjectManager.PROJECT_EXAMPLE;
 				}
 
 				Project p = ProjectManager.getInstance().get(name, projectType);
 
-				File src = new File(files.getProperty("pic").toString());
-				File dst = new File(p.getStoragePath() + "/" + parms.getProperty("pic").toString());
-				Log.d("qwqw", p.getStoragePath() + "/" + parms.getProperty("pic").toString());
-				Log.d(TAG, " " + src.toString() + " " + dst.toString());
+				// TODO add type
+				data.put("code", ProjectManager.getInstance().getCode(p));
+				data.put("hash", ProjectManager.getInstance().getCodeHash(p));
+			}
+		});
 
-				FileIO.copyFile(src, dst);
+		commands.put("list_apps", new Command() {
+			@Override
+			public void run(JSONObject obj, Properties parms, JSONObject data) throws Exception {
+				Log.d(TAG, "--> list apps");
 
-				JSONObject data = new JSONObject();
-				data.put("result", "OK");
+				String type = obj.getString("filter");
 
-				return new Response("200", MIME_TYPES.get("txt"), data.toString());
+				int projectType = -1;
+				if (type.equals("user")) {
+					projectType = ProjectManager.PROJECT_USER_MADE;
+				} else if (type.equals("example")) {
+					projectType = ProjectManager.PROJECT_EXAMPLE;
+				}
+				data.put("projects", ProjectManager.getInstance().listJSON(projectType));
+			}
+		});
+
+		commands.put("run_app", new Command() {
+			@Override
+			public void run(JSONObject obj, Properties parms, JSONObject data) throws Exception {
+				Log.d(TAG, "--> run app");
 
+				// Save and run
+				String name = obj.getString("name");
+				String type = obj.getString("type");
+
+				int projectType = -1;
+				if (type.equals("user")) {
+					projectType = ProjectManager.PROJECT_USER_MADE;
+				} else if (type.equals("example")) {
+					projectType = ProjectManager.PROJECT_EXAMPLE;
+				}
+
+				Project p = ProjectManager.getInstance().get(name, projectType);
+				ProjectManager.getInstance().setRemoteIP(obj.getString("remoteIP"));
+				ProjectEvent evt = new ProjectEvent(p, "run");
+				EventBus.getDefault().post(evt);
+				ALog.i("Running...");
 			}
+		});
 
-			// webapi
-			JSONObject data = new JSONObject();
+		commands.put("execute_code", new Command() {
+			@Override
+			public void run(JSONObject obj, Properties parms, JSONObject data) throws Exception {
+				Log.d(TAG, "--> execute code");
 
-			// splitting the string into command and parameters
-			String[] m = uri.split("=");
+				// Save and run
+				String code = parms.get("codeToSend").toString();
 
-			String userCmd = m[0];
-			String params = "";
-			if (m.length > 1) {
-				params = m[1];
+				Events.ExecuteCodeEvent evt = new Events.ExecuteCodeEvent(code);
+				EventBus.getDefault().post(evt);
+				ALog.i("Execute...");
 			}
-			Log.d(TAG, "cmd " + userCmd);
+		});
+
+		commands.put("profile_scripts", new Command() {
+			@Override
+			public void run(JSONObject obj, Properties parms, JSONObject data) throws Exception {
+				Log.d(TAG, "--> profile scripts");
+
+				// the running script and the next ones
+				boolean enabled = obj.getBoolean("enabled");
+				AppRunnerSettings.get().profileScripts = enabled;
+				EventBus.getDefault().post(new Events.ProfilerEvent(enabled));
+				data.put("enabled", enabled);
+			}
+		});
 
-			if (userCmd.contains("cmd")) {
-				JSONObject obj = new JSONObject(params);
+		commands.put("push_code", new Command() {
+			@Override
+			public void run(JSONObject obj, Properties parms, JSONObject data) throws Exception {
+				Log.d(TAG, "--> push code " + parms.toString());
+				String name = parms.get("name").toString();
+				String type = parms.get("type").toString();
 
-				Project foundProject;
-				String name, url, newCode;
-				String type;
 				int projectType = -1;
+				if (type.equals("user")) {
+					projectType = ProjectManager.PROJECT_USER_MADE;
+				} else if (type.equals("example")) {
+					projectType = ProjectManager.PROJECT_EXAMPLE;
+				}
 
-				Log.d(TAG, "params " + obj.toString(2));
-
-				String cmd = obj.getString("cmd");
-				// fetch code
-				if (cmd.equals("fetch_code")) {
-					Log.d(TAG, "--> fetch code");
-					name = obj.getString("name");
-					type = obj.getString("type");
-
-					if (type.equals("user")) {
-						projectType = ProjectManager.PROJECT_USER_MADE;
-					} else if (type.equals("example")) {
-						projectType = ProjectManager.PROJECT_EXAMPLE;
-					}
-
-					Project p = ProjectManager.getInstance().get(name, projectType);
-
-					// TODO add type
-					data.put("code", ProjectManager.getInstance().getCode(p));
-
-					// list apps
-				} else if (cmd.equals("list_apps")) {
-					Log.d(TAG, "--> list apps");
-
-					type = obj.getString("filter");
-
-					if (type.equals("user")) {
-						projectType = ProjectManager.PROJECT_USER_MADE;
-					} else if (type.equals("example")) {
-						projectType = ProjectManager.PROJECT_EXAMPLE;
-					}
-					ArrayList<Project> projects = ProjectManager.getInstance().list(projectType);
-					JSONArray projectsArray = new JSONArray();
-					for (Project project : projects) {
-						projectsArray.put(ProjectManager.getInstance().toJson(project));
-					}
-					data.put("projects", projectsArray);
-
-					// run app
-				} else if (cmd.equals("run_app")) {
-					Log.d(TAG, "--> run app");
-
-					// Save and run
-					name = obj.getString("name");
-					type = obj.getString("type");
-
-					if (type.equals("user")) {
-						projectType = ProjectManager.PROJECT_USER_MADE;
-					} else if (type.equals("example")) {
-						projectType = ProjectManager.PROJECT_EXAMPLE;
-					}
-
-					Project p = ProjectManager.getInstance().get(name, projectType);
-					ProjectManager.getInstance().setRemoteIP(obj.getString("remoteIP"));
-					ProjectEvent evt = new ProjectEvent(p, "run");
-					EventBus.getDefault().post(evt);
-					ALog.i("Running...");
+				// add type
+				ProjectManager pm = ProjectManager.getInstance();
+				Project p = pm.get(name, projectType);
 
-					// run app
-				} else if (cmd.equals("execute_code")) {
-					Log.d(TAG, "--> execute code");
+				// the IDE can send only the edits made on the version it has
+				ProjectManager.CodeUpdate update;
+				String patch = parms.getProperty("patch");
+				if (patch != null) {
+					update = pm.updateCode(p, null, parms.getProperty("base"), new JSONArray(patch));
+				} else {
+					update = pm.updateCode(p, parms.get("code").toString(), null, null);
+				}
 
-					// Save and run
-					String code = parms.get("codeToSend").toString();
+				data.put("project", pm.toJson(p));
+				data.put("hash", update.hash);
+				if (update.mismatch) {
+					data.put("mismatch", true);
+					return;
+				}
+				data.put("changed", update.changed);
+				data.put("change", update.change.toJson());
 
-					Events.ExecuteCodeEvent evt = new Events.ExecuteCodeEvent(code);
-					EventBus.getDefault().post(evt);
-					ALog.i("Execute...");
-
-					// save_code
-				} else if (cmd.equals("push_code")) {
-					Log.d(TAG, "--> push code " + method + " " + header);
-					Log.d(TAG, "---->" + parms.toString() + " " + files.toString());
-					Log.d(TAG, "" + parms.get("code"));
-					name = parms.get("name").toString();
-					newCode = parms.get("code").toString();
-					Log.d("ww", newCode);
-
-					type = parms.get("type").toString();
-
-					if (type.equals("user")) {
-						projectType = ProjectManager.PROJECT_USER_MADE;
-					} else if (type.equals("example")) {
-						projectType = ProjectManager.PROJECT_EXAMPLE;
-					}
-
-					// add type
-					Project p = ProjectManager.getInstance().get(name, projectType);
-					ProjectManager.getInstance().writeNewCode(p, newCode);
-					data.put("project", ProjectManager.getInstance().toJson(p));
+				// nothing to tell the editor if the code is the same
+				if (update.changed) {
 					ProjectEvent evt = new ProjectEvent(p, "save");
+					evt.setChange(update.change);
 					EventBus.getDefault().post(evt);
+				}
 
-					ALog.i("Saved");
+				ALog.i("Saved");
+			}
+		});
 
-					// list files in project
-				} else if (cmd.equals("list_files_in_project")) {
-					Log.d(TAG, "--> create new project");
-					name = obj.getString("name");
-					type = obj.getString("type");
+		commands.put("list_files_in_project", new Command() {
+			@Override
+			public void run(JSONObject obj, Properties parms, JSONObject data) throws Exception {
+				Log.d(TAG, "--> create new project");
+				String name = obj.getString("name");
+				String type = obj.getString("type");
 
-					if (type.equals("user")) {
-						projectType = ProjectManager.PROJECT_USER_MADE;
-					} else if (type.equals("list_examples")) {
-						projectType = ProjectManager.PROJECT_EXAMPLE;
-					}
+				int projectType;
+				if (type.equals("user")) {
+					projectType = ProjectManager.PROJECT_USER_MADE;
+				} else if (type.equals("example") || type.equals("list_examples")) {
+					projectType = ProjectManager.PROJECT_EXAMPLE;
+				} else {
+					throw new IllegalArgumentException("unknown project type " + type);
+				}
 
-					Project p = new Project(name, projectType);
-					JSONArray array = ProjectManager.getInstance().listFilesInProjectJSON(p);
-					data.put("files", array);
-					// ProjectEvent evt = new ProjectEvent(p, "new");
-					// EventBus.getDefault().post(evt);
+				Project p = new Project(name, projectType);
+				JSONArray array = ProjectManager.getInstance().listFilesInProjectJSON(p);
+				data.put("files", array);
+			}
+		});
 
-				} else if (cmd.equals("create_new_project")) {
-					Log.d(TAG, "--> create new project");
+		commands.put("create_new_project", new Command() {
+			@Override
+			public void run(JSONObject obj, Properties parms, JSONObject data) throws Exception {
+				Log.d(TAG, "--> create new project");
 
-					name = obj.getString("name");
-					Project p = new Project(name, "", ProjectManager.PROJECT_USER_MADE);
-					ProjectEvent evt = new ProjectEvent(p, "new");
-					EventBus.getDefault().post(evt);
+				String name = obj.getString("name");
+				Project p = new Project(name, "", ProjectManager.PROJECT_USER_MADE);
+				ProjectEvent evt = new ProjectEvent(p, "new");
+				EventBus.getDefault().post(evt);
 
-					Project newProject = ProjectManager.getInstance().addNewProject(ctx.get(), name, name,
-							ProjectManager.PROJECT_USER_MADE);
-
-					// remove app
-				} else if (cmd.equals("remove_app")) {
-					Log.d(TAG, "--> remove app");
-
-					// get help
-				} else if (cmd.equals("get_documentation")) {
-					Log.d(TAG, "--> get documentation");
-
-					// TODO do it automatically
-					APIManager.getInstance().clear();
-					APIManager.getInstance().addClass(JDevice.class);
-					APIManager.getInstance().addClass(JBoards.class);
-					APIManager.getInstance().addClass(JConsole.class);
-					APIManager.getInstance().addClass(JDashboard.class);
-					APIManager.getInstance().addClass(JEditor.class);
-					APIManager.getInstance().addClass(JFileIO.class);
-					APIManager.getInstance().addClass(JMedia.class);
-					APIManager.getInstance().addClass(JNetwork.class);
-					APIManager.getInstance().addClass(JProtocoder.class);
-					APIManager.getInstance().addClass(JSensors.class);
-					APIManager.getInstance().addClass(JUtil.class);
-					APIManager.getInstance().addClass(JUI.class);
-
-					APIManager.getInstance().addClass(JIOIO.class);
-					APIManager.getInstance().addClass(JMakr.class);
-
-					APIManager.getInstance().addClass(JCamera.class);
-					APIManager.getInstance().addClass(JPureData.class);
-					APIManager.getInstance().addClass(JVideo.class);
-
-					APIManager.getInstance().addClass(JButton.class);
-					APIManager.getInstance().addClass(JCanvasView.class);
-					APIManager.getInstance().addClass(JCard.class);
-
-					APIManager.getInstance().addClass(JCheckBox.class);
-					APIManager.getInstance().addClass(JEditText.class);
-					APIManager.getInstance().addClass(JImageButton.class);
-					APIManager.getInstance().addClass(JImageView.class);
-					APIManager.getInstance().addClass(JMap.class);
-					APIManager.getInstance().addClass(JPlotView.class);
-					APIManager.getInstance().addClass(JRadioButton.class);
-					APIManager.getInstance().addClass(JRow.class);
-					APIManager.getInstance().addClass(JSeekBar.class);
-					APIManager.getInstance().addClass(JSwitch.class);
-					APIManager.getInstance().addClass(JTextView.class);
-					APIManager.getInstance().addClass(JToggleButton.class);
-					APIManager.getInstance().addClass(JWebView.class);
-
-					APIManager.getInstance().addClass(JDashboardButton.class);
-					APIManager.getInstance().addClass(JDashboardHTML.class);
-					APIManager.getInstance().addClass(JDashboardImage.class);
-					APIManager.getInstance().addClass(JDashboardLabel.class);
-					APIManager.getInstance().addClass(JDashboardPlot.class);
-
-					data.put("api", APIManager.getInstance().getDocumentation());
-				}
+				Project newProject = ProjectManager.getInstance().addNewProject(ctx.get(), name, name,
+						ProjectManager.PROJECT_USER_MADE);
+			}
+		});
 
-				res = new Response("200", MIME_TYPES.get("txt"), data.toString());
+		commands.put("remove_app", new Command() {
+			@Override
+			public void run(JSONObject obj, Properties parms, JSONObject data) throws Exception {
+				Log.d(TAG, "--> remove app");
+			}
+		});
 
-			} else if (uri.contains("apps")) {
-				String[] u = uri.split("/");
+		commands.put("get_documentation", new Command() {
+			@Override
+			public void run(JSONObject obj, Properties parms, JSONObject data) throws Exception {
+				Log.d(TAG, "--> get documentation");
+				data.put("api", getDocumentation());
+			}
+		});
+	}
 
-				// server webui
-			} else {
+	/**
+	 * Uploads go straight to the project folder instead of a temporary file
+	 */
+	@Override
+	protected File getUploadFile(String uri, Properties header, Properties parms, String field, String filename)
+			throws IOException {
+		Project p = getUploadProject(parms);
+		if (p == null) {
+			return super.getUploadFile(uri, header, parms, field, filename);
+		}
 
-				res = sendWebAppFile(uri, method, header, parms, files);
-			}
+		return new File(p.getStoragePath(), new File(filename).getName());
+	}
 
-		} catch (Exception e) {
-			Log.d(TAG, "response error " + e.toString());
+	private Project getUploadProject(Properties parms) {
+		String name = parms.getProperty("name");
+		String fileType = parms.getProperty("fileType");
+		if (name == null || fileType == null) {
+			return null;
 		}
 
-		// return serveFile(uri, header, servingFolder, true);
-		return res;
+		int projectType = -1;
+		if (fileType.equals("user")) {
+			projectType = ProjectManager.PROJECT_USER_MADE;
+		} else if (fileType.equals("example")) {
+			projectType = ProjectManager.PROJECT_EXAMPLE;
+		}
+
+		return ProjectManager.getInstance().get(name, projectType);
 	}
 
 	private Response sendProjectFile(String uri, String method, Properties header, Properties parms, Properties files) {
@@ -495,23 +665,38 @@ public class MyHTTPServer extends NanoHTTPD {
 			uri = uri.substring(1, uri.length());
 		}
 
-		// have the object build the directory structure, if needed.
-		AssetManager am = ctx.get().getAssets();
-		try {
-			Log.d(TAG, WEBAPP_DIR + uri);
-			InputStream fi = am.open(WEBAPP_DIR + uri);
+		String path = WEBAPP_DIR + uri;
+		Log.d(TAG, path);
 
-			// Get MIME type from file name extension, if possible
-			String mime = null;
-			int dot = uri.lastIndexOf('.');
-			if (dot >= 0) {
-				mime = MIME_TYPES.get(uri.substring(dot + 1).toLowerCase());
-			}
-			if (mime == null) {
-				mime = NanoHTTPD.MIME_DEFAULT_BINARY;
-			}
+		// Get MIME type from file name extension, if possible
+		String mime = null;
+		int dot = uri.lastIndexOf('.');
+		if (dot >= 0) {
+			mime = MIME_TYPES.get(uri.substring(dot + 1).toLowerCase());
+		}
+		if (mime == null) {
+			mime = NanoHTTPD.MIME_DEFAULT_BINARY;
+		}
 
-			res = new Response(HTTP_OK, mime, fi);
+		// the assets only change when the app is updated, the browser asks
+		// again every time and mostly gets a 304
+		String etag = assetCache.getETag(path);
+		if (isNotModified(header, etag)) {
+			res = new Response(HTTP_NOT_MODIFIED, mime, (InputStream) null);
+			addCacheHeaders(res, etag);
+			return res;
+		}
+
+		try {
+			AssetCache.Asset asset = assetCache.get(path, isCompressible(mime));
+			if (asset == null) {
+				// too big to keep it in memory
+				AssetManager am = ctx.get().getAssets();
+				res = new Response(HTTP_OK, mime, am.open(path));
+				addCacheHeaders(res, etag);
+			} else {
+				res = sendAsset(asset, mime, header);
+			}
 		} catch (IOException e) {
 			e.printStackTrace();
 			ALog.d(TAG, e.getStackTrace().toString());
@@ -522,6 +707,61 @@ public class MyHTTPServer extends NanoHTTPD {
 
 	}
 
+	/**
+	 * Sends a cached asset, a 304 if the client has it or the gzip version if
+	 * it takes it
+	 */
+	private Response sendAsset(AssetCache.Asset asset, String mime, Properties header) {
+		Response res;
+		String etag = asset.etag;
+
+		if (isNotModified(header, etag)) {
+			res = new Response(HTTP_NOT_MODIFIED, mime, (InputStream) null);
+		} else if (asset.gzip != null && acceptsGzip(header)) {
+			res = new Response(HTTP_OK, mime, new ByteArrayInputStream(asset.gzip));
+			res.addHeader("Content-Encoding", "gzip");
+			etag = etag.substring(0, etag.length() - 1) + "-gz\"";
+		} else {
+			res = new Response(HTTP_OK, mime, new ByteArrayInputStream(asset.data));
+		}
+		addCacheHeaders(res, etag);
+
+		return res;
+	}
+
+	private boolean isNotModified(Properties header, String etag) {
+		String ifNoneMatch = header.getProperty("if-none-match");
+		if (ifNoneMatch != null) {
+			// the gzip version has the same tag plus -gz
+			return ifNoneMatch.contains(etag.substring(0, etag.length() - 1));
+		}
+
+		String ifModifiedSince = header.getProperty("if-modified-since");
+		if (ifModifiedSince != null) {
+			Date date = parseDate(ifModifiedSince);
+			return date != null && assetCache.getLastModified() <= date.getTime();
+		}
+
+		return false;
+	}
+
+	private void addCacheHeaders(Response res, String etag) {
+		res.addHeader("ETag", etag);
+		res.addHeader("Last-Modified", formatDate(new Date(assetCache.getLastModified())));
+		res.addHeader("Cache-Control", "no-cache");
+		res.addHeader("Vary", "Accept-Encoding");
+	}
+
+	private boolean acceptsGzip(Properties header) {
+		String acceptEncoding = header.getProperty("accept-encoding");
+		return acceptEncoding != null && acceptEncoding.contains("gzip") && !acceptEncoding.contains("gzip;q=0");
+	}
+
+	private boolean isCompressible(String mime) {
+		return mime.startsWith("text/") || mime.equals("application/javascript") || mime.equals("application/json")
+				|| mime.endsWith("xml");
+	}
+
 	public void close() {
 		stop();
 		instance = null;
@@ -28,6 +28,8 @@
 
 package org.protocoder.network;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
@@ -41,7 +43,10 @@ import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
 import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.Date;
 import java.util.Enumeration;
 import java.util.Hashtable;
@@ -50,12 +55,17 @@ import java.util.Properties;
 import java.util.StringTokenizer;
 import java.util.TimeZone;
 import java.util.Vector;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import android.annotation.SuppressLint;
 import android.util.Log;
 
 /**
- * A simple, tiny, nicely embeddable HTTP 1.0 server in Java
+ * A simple, tiny, nicely embeddable HTTP 1.1 server in Java
  * 
  * <p>
  * NanoHTTPD version 1.21, Copyright &copy; 2001,2005-2011 Jarno Elonen
@@ -75,11 +85,14 @@ import android.util.Log;
  * <li>Supports both dynamic content and file serving</li>
  * <li>Supports file upload (since version 1.2, 2010)</li>
  * <li>Never caches anything</li>
- * <li>Doesn't limit bandwidth, request time or simultaneous connections</li>
+ * <li>Doesn't limit bandwidth or request time</li>
+ * <li>Connections are served by a bounded pool of workers</li>
+ * <li>Keep-alive connections, responses of unknown length are chunked</li>
+ * <li>Bodies that write themselves as they are made (StreamBody)</li>
  * <li>Default code serves files and shows all HTTP parameters and headers</li>
  * <li>File server supports directory listing, index.html and index.htm</li>
  * <li>File server does the 301 redirection trick for directories without '/'</li>
- * <li>File server supports simple skipping for files (continue download)</li>
+ * <li>File server supports byte ranges (continue download, media seeking)</li>
  * <li>File server uses current directory as a web root</li>
  * <li>File server serves also very long files without memory overhead</li>
  * <li>Contains a built-in list of most common mime types</li>
@@ -213,8 +226,11 @@ public class NanoHTTPD {
 	 * Some HTTP response status codes
 	 */
 	public static final String HTTP_OK = "200 OK", HTTP_REDIRECT = "301 Moved Permanently",
+			HTTP_PARTIALCONTENT = "206 Partial Content", HTTP_NOT_MODIFIED = "304 Not Modified",
+			HTTP_RANGE_NOT_SATISFIABLE = "416 Requested Range Not Satisfiable",
 			HTTP_FORBIDDEN = "403 Forbidden", HTTP_NOTFOUND = "404 Not Found", HTTP_BADREQUEST = "400 Bad Request",
-			HTTP_INTERNALERROR = "500 Internal Server Error", HTTP_NOTIMPLEMENTED = "501 Not Implemented";
+			HTTP_INTERNALERROR = "500 Internal Server Error", HTTP_NOTIMPLEMENTED = "501 Not Implemented",
+			HTTP_UNAVAILABLE = "503 Service Unavailable";
 
 	/**
 	 * Common mime types for dynamic content
@@ -232,14 +248,45 @@ public class NanoHTTPD {
 	 * Throws an IOException if the socket is already in use
 	 */
 	public NanoHTTPD(int port) throws IOException {
+		this(port, DEFAULT_WORKERS, DEFAULT_QUEUE_SIZE);
+	}
+
+	/**
+	 * Starts a HTTP server to given port. The connections are handled by a
+	 * pool of workers, the ones accepted while all the workers are busy wait
+	 * in a queue. When the queue is full the client gets a 503 straight away
+	 */
+	public NanoHTTPD(int port, int workers, int queueSize) throws IOException {
 		myTcpPort = port;
 		myServerSocket = new ServerSocket(myTcpPort);
+		myWorkers = new ThreadPoolExecutor(workers, workers, 30, TimeUnit.SECONDS,
+				new ArrayBlockingQueue<Runnable>(Math.max(1, queueSize)), new ThreadFactory() {
+					private int count = 0;
+
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread t = new Thread(r, "NanoHTTPD worker " + (++count));
+						t.setDaemon(true);
+						return t;
+					}
+				});
+		myWorkers.allowCoreThreadTimeOut(true);
+
 		myThread = new Thread(new Runnable() {
 			@Override
 			public void run() {
 				try {
-					while (true)
-						new HTTPSession(myServerSocket.accept());
+					while (true) {
+						Socket socket = myServerSocket.accept();
+						// a client that stops sending can't keep a worker forever
+						socket.setSoTimeout(SOCKET_READ_TIMEOUT);
+						try {
+							myWorkers.execute(new HTTPSession(socket));
+						} catch (RejectedExecutionException e) {
+							rejectedConnections++;
+							refuse(socket);
+						}
+					}
 				} catch (IOException ioe) {
 				}
 			}
@@ -258,6 +305,43 @@ public class NanoHTTPD {
 		} catch (IOException ioe) {
 		} catch (InterruptedException e) {
 		}
+		myWorkers.shutdownNow();
+	}
+
+	/**
+	 * Connections being served right now
+	 */
+	public int getActiveConnections() {
+		return myWorkers.getActiveCount();
+	}
+
+	/**
+	 * Connections accepted and waiting for a worker
+	 */
+	public int getQueuedConnections() {
+		return myWorkers.getQueue().size();
+	}
+
+	public long getServedConnections() {
+		return myWorkers.getCompletedTaskCount();
+	}
+
+	public long getRejectedConnections() {
+		return rejectedConnections;
+	}
+
+	private void refuse(Socket socket) {
+		try {
+			OutputStream out = socket.getOutputStream();
+			out.write(("HTTP/1.0 " + HTTP_UNAVAILABLE + " \r\nContent-Length: 0\r\nRetry-After: 1\r\n\r\n").getBytes());
+			out.flush();
+		} catch (IOException e) {
+		} finally {
+			try {
+				socket.close();
+			} catch (IOException e) {
+			}
+		}
 	}
 
 	/**
@@ -304,152 +388,196 @@ public class NanoHTTPD {
 	private class HTTPSession implements Runnable {
 		public HTTPSession(Socket s) {
 			mySocket = s;
-			Thread t = new Thread(this);
-			t.setDaemon(true);
-			t.start();
 		}
 
 		@Override
 		public void run() {
 			try {
-				InputStream is = mySocket.getInputStream();
-				if (is == null)
-					return;
-
-				// Read the first 8192 bytes.
-				// The full header should fit in here.
-				// Apache's default header limit is 8KB.
-				int bufsize = 8192;
-				byte[] buf = new byte[bufsize];
-				int rlen = is.read(buf, 0, bufsize);
-				if (rlen <= 0)
-					return;
-
-				// Create a BufferedReader for parsing the header.
-				ByteArrayInputStream hbis = new ByteArrayInputStream(buf, 0, rlen);
-				BufferedReader hin = new BufferedReader(new InputStreamReader(hbis));
-				Properties pre = new Properties();
-				Properties parms = new Properties();
-				Properties header = new Properties();
-				Properties files = new Properties();
-
-				// Decode the header into parms and header java properties
-				decodeHeader(hin, pre, parms, header);
-				String method = pre.getProperty("method");
-				String uri = pre.getProperty("uri");
-
-				long size = 0x7FFFFFFFFFFFFFFFl;
-				String contentLength = header.getProperty("content-length");
-				if (contentLength != null) {
-					try {
-						size = Integer.parseInt(contentLength);
-					} catch (NumberFormatException ex) {
+				// buffered once for the whole connection, the bytes of a
+				// pipelined request stay here until it is parsed
+				InputStream is = new BufferedInputStream(mySocket.getInputStream());
+				int requests = 0;
+				do {
+					if (requests > 0 && !waitForNextRequest(is)) {
+						break;
 					}
-				}
-
-				// We are looking for the byte separating header from body.
-				// It must be the last byte of the first two sequential new
-				// lines.
-				int splitbyte = 0;
-				boolean sbfound = false;
-				while (splitbyte < rlen) {
-					if (buf[splitbyte] == '\r' && buf[++splitbyte] == '\n' && buf[++splitbyte] == '\r'
-							&& buf[++splitbyte] == '\n') {
-						sbfound = true;
+					if (!handleRequest(is)) {
 						break;
 					}
-					splitbyte++;
+					requests++;
+				} while (keepAlive && requests < MAX_KEEP_ALIVE_REQUESTS);
+			} catch (SocketTimeoutException e) {
+				// idle connection or client too slow, just close it
+			} catch (IOException ioe) {
+				try {
+					sendError(HTTP_INTERNALERROR, "SERVER INTERNAL ERROR: IOException: " + ioe.getMessage());
+				} catch (Throwable t) {
 				}
-				splitbyte++;
-
-				// Write the part of body already read to ByteArrayOutputStream
-				// f
-				ByteArrayOutputStream f = new ByteArrayOutputStream();
-				if (splitbyte < rlen)
-					f.write(buf, splitbyte, rlen - splitbyte);
-
-				// While Firefox sends on the first read all the data fitting
-				// our buffer, Chrome and Opera sends only the headers even if
-				// there is data for the body. So we do some magic here to find
-				// out whether we have already consumed part of body, if we
-				// have reached the end of the data to be sent or we should
-				// expect the first byte of the body at the next read.
-				if (splitbyte < rlen)
-					size -= rlen - splitbyte + 1;
-				else if (!sbfound || size == 0x7FFFFFFFFFFFFFFFl)
-					size = 0;
-
-				// Now read all the body and write it to f
-				buf = new byte[512];
-				while (rlen >= 0 && size > 0) {
-					rlen = is.read(buf, 0, 512);
-					size -= rlen;
-					if (rlen > 0)
-						f.write(buf, 0, rlen);
+			} catch (InterruptedException ie) {
+				// Thrown by sendError, ignore and exit the thread.
+			} finally {
+				try {
+					mySocket.close();
+				} catch (IOException e) {
 				}
+			}
+		}
 
-				// Get the raw body as a byte []
-				byte[] fbuf = f.toByteArray();
-
-				// Create a BufferedReader for easily reading it as string.
-				ByteArrayInputStream bin = new ByteArrayInputStream(fbuf);
-				BufferedReader in = new BufferedReader(new InputStreamReader(bin));
-
-				// If the method is POST, there may be parameters
-				// in data section, too, read it:
-				if (method.equalsIgnoreCase("POST")) {
-					String contentType = "";
-					String contentTypeHeader = header.getProperty("content-type");
-					StringTokenizer st = new StringTokenizer(contentTypeHeader, "; ");
-					if (st.hasMoreTokens()) {
-						contentType = st.nextToken();
+		/**
+		 * Waits for the next request of a persistent connection. An idle
+		 * connection gives its worker back as soon as another one is waiting
+		 * for it, the client opens a new connection when it needs one
+		 */
+		private boolean waitForNextRequest(InputStream is) throws IOException {
+			mySocket.setSoTimeout(IDLE_POLL_INTERVAL);
+			int idle = 0;
+			while (true) {
+				try {
+					is.mark(1);
+					if (is.read() < 0) {
+						return false;
 					}
-
-					if (contentType.equalsIgnoreCase("multipart/form-data")) {
-						// Handle multipart/form-data
-						if (!st.hasMoreTokens())
-							sendError(HTTP_BADREQUEST,
-									"BAD REQUEST: Content type is multipart/form-data but boundary missing. Usage: GET /example/file.html");
-						String boundaryExp = st.nextToken();
-						st = new StringTokenizer(boundaryExp, "=");
-						if (st.countTokens() != 2)
-							sendError(HTTP_BADREQUEST,
-									"BAD REQUEST: Content type is multipart/form-data but boundary syntax error. Usage: GET /example/file.html");
-						st.nextToken();
-						String boundary = st.nextToken();
-
-						decodeMultipartData(boundary, fbuf, in, parms, files);
-					} else {
-						// Handle application/x-www-form-urlencoded
-						String postLine = "";
-						char pbuf[] = new char[512];
-						int read = in.read(pbuf);
-						while (read >= 0 && !postLine.endsWith("\r\n")) {
-							postLine += String.valueOf(pbuf, 0, read);
-							read = in.read(pbuf);
-						}
-						postLine = postLine.trim();
-						decodeParms(postLine, parms);
+					is.reset();
+					mySocket.setSoTimeout(SOCKET_READ_TIMEOUT);
+					return true;
+				} catch (SocketTimeoutException e) {
+					idle += IDLE_POLL_INTERVAL;
+					if (idle >= KEEP_ALIVE_TIMEOUT || !myWorkers.getQueue().isEmpty()) {
+						return false;
 					}
 				}
+			}
+		}
+
+		/**
+		 * Reads and answers one request. Returns false when the client closed
+		 * the connection before sending anything
+		 */
+		private boolean handleRequest(InputStream is) throws IOException, InterruptedException {
+			byte[] head = readHead(is);
+			if (head == null)
+				return false;
+
+			// Create a BufferedReader for parsing the header.
+			BufferedReader hin = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(head)));
+			Properties pre = new Properties();
+			Properties parms = new Properties();
+			Properties header = new Properties();
+			Properties files = new Properties();
+
+			// Decode the header into parms and header java properties
+			decodeHeader(hin, pre, parms, header);
+			String method = pre.getProperty("method");
+			String uri = pre.getProperty("uri");
+
+			// HTTP/1.1 connections stay open unless the client says otherwise
+			String connection = header.getProperty("connection", "");
+			http11 = "HTTP/1.1".equals(pre.getProperty("version"));
+			if (http11)
+				keepAlive = !connection.equalsIgnoreCase("close");
+			else
+				keepAlive = connection.equalsIgnoreCase("keep-alive");
+
+			// The body is read as it arrives and only what the request says it
+			// has, the next request is left in the stream
+			InputStream body = openBody(is, header);
+
+			// If the method is POST, there may be parameters
+			// in data section, too, read it:
+			if (method.equalsIgnoreCase("POST")) {
+				String contentType = "";
+				String contentTypeHeader = header.getProperty("content-type", "");
+				StringTokenizer st = new StringTokenizer(contentTypeHeader, "; ");
+				if (st.hasMoreTokens()) {
+					contentType = st.nextToken();
+				}
+
+				if (contentType.equalsIgnoreCase("multipart/form-data")) {
+					// Handle multipart/form-data
+					if (!st.hasMoreTokens())
+						sendError(HTTP_BADREQUEST,
+								"BAD REQUEST: Content type is multipart/form-data but boundary missing. Usage: GET /example/file.html");
+					String boundaryExp = st.nextToken();
+					st = new StringTokenizer(boundaryExp, "=");
+					if (st.countTokens() != 2)
+						sendError(HTTP_BADREQUEST,
+								"BAD REQUEST: Content type is multipart/form-data but boundary syntax error. Usage: GET /example/file.html");
+					st.nextToken();
+					String boundary = unquote(st.nextToken());
+
+					decodeMultipartData(uri, header, boundary, body, parms, files);
+				} else {
+					// Handle application/x-www-form-urlencoded
+					ByteArrayOutputStream f = new ByteArrayOutputStream();
+					copy(body, f, Long.MAX_VALUE);
+					String postLine = new String(f.toByteArray()).trim();
+					decodeParms(postLine, parms);
+				}
+			}
+
+			// whatever the request sent and nobody read
+			copy(body, null, Long.MAX_VALUE);
 
-				// Ok, now do the serve()
-				Response r = serve(uri, method, header, parms, files);
-				if (r == null)
-					sendError(HTTP_INTERNALERROR, "SERVER INTERNAL ERROR: Serve() returned a null response.");
+			// Ok, now do the serve()
+			Response r = serve(uri, method, header, parms, files);
+			if (r == null)
+				sendError(HTTP_INTERNALERROR, "SERVER INTERNAL ERROR: Serve() returned a null response.");
+			else
+				sendResponse(r.status, r.mimeType, r.header, r.data);
+
+			return true;
+		}
+
+		/**
+		 * Reads the request line and headers, up to the empty line. Empty
+		 * lines left between pipelined requests are skipped
+		 */
+		private byte[] readHead(InputStream is) throws IOException, InterruptedException {
+			ByteArrayOutputStream head = new ByteArrayOutputStream(512);
+			int matched = 0;
+
+			while (matched < 4) {
+				int b = is.read();
+				if (b < 0) {
+					if (head.size() == 0)
+						return null;
+					break;
+				}
+				if (head.size() == 0 && (b == '\r' || b == '\n'))
+					continue;
+
+				head.write(b);
+				if (b == (matched % 2 == 0 ? '\r' : '\n'))
+					matched++;
 				else
-					sendResponse(r.status, r.mimeType, r.header, r.data);
+					matched = b == '\r' ? 1 : 0;
 
-				in.close();
-				is.close();
-			} catch (IOException ioe) {
+				// Apache's default header limit is 8KB.
+				if (head.size() > HEADER_LIMIT)
+					sendError(HTTP_BADREQUEST, "BAD REQUEST: Headers too long.");
+			}
+
+			return head.toByteArray();
+		}
+
+		/**
+		 * The body announced by content-length or sent in chunks
+		 */
+		private InputStream openBody(InputStream is, Properties header) throws InterruptedException {
+			if ("chunked".equalsIgnoreCase(header.getProperty("transfer-encoding")))
+				return new ChunkedInputStream(is);
+
+			long length = 0;
+			String contentLength = header.getProperty("content-length");
+			if (contentLength != null) {
 				try {
-					sendError(HTTP_INTERNALERROR, "SERVER INTERNAL ERROR: IOException: " + ioe.getMessage());
-				} catch (Throwable t) {
+					length = Long.parseLong(contentLength.trim());
+				} catch (NumberFormatException ex) {
+					sendError(HTTP_BADREQUEST, "BAD REQUEST: Wrong content length.");
 				}
-			} catch (InterruptedException ie) {
-				// Thrown by sendError, ignore and exit the thread.
 			}
+
+			return new FixedLengthInputStream(is, length);
 		}
 
 		/**
@@ -484,10 +612,11 @@ public class NanoHTTPD {
 					uri = decodePercent(uri);
 
 				// If there's another token, it's protocol version,
-				// followed by HTTP headers. Ignore version but parse headers.
+				// followed by HTTP headers.
 				// NOTE: this now forces header names lowercase since they are
 				// case insensitive and vary by client.
 				if (st.hasMoreTokens()) {
+					pre.put("version", st.nextToken());
 					String line = in.readLine();
 					while (line != null && line.trim().length() > 0) {
 						int p = line.indexOf(':');
@@ -505,141 +634,66 @@ public class NanoHTTPD {
 		}
 
 		/**
-		 * Decodes the Multipart Body data and put it into java Properties' key
-		 * - value pairs.
-		 **/
-		private void decodeMultipartData(String boundary, byte[] fbuf, BufferedReader in, Properties parms,
-				Properties files) throws InterruptedException {
-			try {
-				int[] bpositions = getBoundaryPositions(fbuf, boundary.getBytes());
-				int boundarycount = 1;
-				String mpline = in.readLine();
-				while (mpline != null) {
-					if (mpline.indexOf(boundary) == -1)
-						sendError(
-								HTTP_BADREQUEST,
-								"BAD REQUEST: Content type is multipart/form-data but next chunk does not start with boundary. Usage: GET /example/file.html");
-					boundarycount++;
-					Properties item = new Properties();
-					mpline = in.readLine();
-					while (mpline != null && mpline.trim().length() > 0) {
-						int p = mpline.indexOf(':');
-						if (p != -1)
-							item.put(mpline.substring(0, p).trim().toLowerCase(), mpline.substring(p + 1).trim());
-						mpline = in.readLine();
-					}
-					if (mpline != null) {
-						String contentDisposition = item.getProperty("content-disposition");
-						if (contentDisposition == null) {
-							sendError(HTTP_BADREQUEST,
-									"BAD REQUEST: Content type is multipart/form-data but no content-disposition info found. Usage: GET /example/file.html");
-						}
-						StringTokenizer st = new StringTokenizer(contentDisposition, "; ");
-						Properties disposition = new Properties();
-						while (st.hasMoreTokens()) {
-							String token = st.nextToken();
-							int p = token.indexOf('=');
-							if (p != -1)
-								disposition.put(token.substring(0, p).trim().toLowerCase(), token.substring(p + 1)
-										.trim());
-						}
-						String pname = disposition.getProperty("name");
-						pname = pname.substring(1, pname.length() - 1);
-
-						String value = "";
-						if (item.getProperty("content-type") == null) {
-							while (mpline != null && mpline.indexOf(boundary) == -1) {
-								mpline = in.readLine();
-								if (mpline != null) {
-									int d = mpline.indexOf(boundary);
-									if (d == -1)
-										value += mpline;
-									else
-										value += mpline.substring(0, d - 2);
-								}
-							}
-						} else {
-							if (boundarycount > bpositions.length)
-								sendError(HTTP_INTERNALERROR, "Error processing request");
-							int offset = stripMultipartHeaders(fbuf, bpositions[boundarycount - 2]);
-							String path = saveTmpFile(fbuf, offset, bpositions[boundarycount - 1] - offset - 4);
-							files.put(pname, path);
-							value = disposition.getProperty("filename");
-							value = value.substring(1, value.length() - 1);
-							do {
-								mpline = in.readLine();
-							} while (mpline != null && mpline.indexOf(boundary) == -1);
-						}
-						parms.put(pname, value);
-					}
+		 * Decodes the multipart parameters as they arrive. Uploaded files are
+		 * written to the file given by getUploadFile, their name goes into
+		 * parms and their path into files
+		 */
+		private void decodeMultipartData(String uri, Properties header, String boundary, InputStream body,
+				Properties parms, Properties files) throws IOException, InterruptedException {
+			MultipartStream multipart = new MultipartStream(body, boundary);
+			Properties item = new Properties();
+			while (multipart.nextPart(item)) {
+				String contentDisposition = item.getProperty("content-disposition");
+				if (contentDisposition == null) {
+					sendError(HTTP_BADREQUEST,
+							"BAD REQUEST: Content type is multipart/form-data but no content-disposition info found. Usage: GET /example/file.html");
 				}
-			} catch (IOException ioe) {
-				sendError(HTTP_INTERNALERROR, "SERVER INTERNAL ERROR: IOException: " + ioe.getMessage());
-			}
-		}
-
-		/**
-		 * Find the byte positions where multipart boundaries start.
-		 **/
-		public int[] getBoundaryPositions(byte[] b, byte[] boundary) {
-			int matchcount = 0;
-			int matchbyte = -1;
-			Vector matchbytes = new Vector();
-			for (int i = 0; i < b.length; i++) {
-				if (b[i] == boundary[matchcount]) {
-					if (matchcount == 0)
-						matchbyte = i;
-					matchcount++;
-					if (matchcount == boundary.length) {
-						matchbytes.addElement(new Integer(matchbyte));
-						matchcount = 0;
-						matchbyte = -1;
-					}
-				} else {
-					i -= matchcount;
-					matchcount = 0;
-					matchbyte = -1;
+				StringTokenizer st = new StringTokenizer(contentDisposition, ";");
+				Properties disposition = new Properties();
+				while (st.hasMoreTokens()) {
+					String token = st.nextToken();
+					int p = token.indexOf('=');
+					if (p != -1)
+						disposition.put(token.substring(0, p).trim().toLowerCase(), unquote(token.substring(p + 1).trim()));
 				}
-			}
-			int[] ret = new int[matchbytes.size()];
-			for (int i = 0; i < ret.length; i++) {
-				ret[i] = ((Integer) matchbytes.elementAt(i)).intValue();
-			}
-			return ret;
-		}
+				String pname = disposition.getProperty("name", "");
+				String filename = disposition.getProperty("filename");
+
+				if (filename == null) {
+					final ByteArrayOutputStream value = new ByteArrayOutputStream();
+					multipart.readPart(new OutputStream() {
+						@Override
+						public void write(int b) throws IOException {
+							write(new byte[] { (byte) b }, 0, 1);
+						}
 
-		/**
-		 * Retrieves the content of a sent file and saves it to a temporary
-		 * file. The full path to the saved file is returned.
-		 **/
-		private String saveTmpFile(byte[] b, int offset, int len) {
-			String path = "";
-			if (len > 0) {
-				String tmpdir = System.getProperty("java.io.tmpdir");
-				try {
-					File temp = File.createTempFile("NanoHTTPD", "", new File(tmpdir));
-					OutputStream fstream = new FileOutputStream(temp);
-					fstream.write(b, offset, len);
-					fstream.close();
-					path = temp.getAbsolutePath();
-				} catch (Exception e) { // Catch exception if any
-					System.err.println("Error: " + e.getMessage());
+						@Override
+						public void write(byte[] b, int off, int len) throws IOException {
+							if (value.size() + len > MAX_FIELD_SIZE)
+								throw new IOException("Form field too long");
+							value.write(b, off, len);
+						}
+					});
+					parms.put(pname, value.toString());
+				} else {
+					// written next to the target and moved once complete
+					File target = getUploadFile(uri, header, parms, pname, filename);
+					File part = new File(target.getPath() + ".part");
+					OutputStream out = new FileOutputStream(part);
+					try {
+						multipart.readPart(out);
+						out.close();
+						if (!part.renameTo(target))
+							throw new IOException("Cannot move the upload to " + target);
+					} catch (IOException e) {
+						out.close();
+						part.delete();
+						throw e;
+					}
+					files.put(pname, target.getAbsolutePath());
+					parms.put(pname, filename);
 				}
 			}
-			return path;
-		}
-
-		/**
-		 * It returns the offset separating multipart file headers from the
-		 * file's data.
-		 **/
-		private int stripMultipartHeaders(byte[] b, int offset) {
-			int i = 0;
-			for (i = offset; i < b.length; i++) {
-				if (b[i] == '\r' && b[++i] == '\n' && b[++i] == '\r' && b[++i] == '\n')
-					break;
-			}
-			return i + 1;
 		}
 
 		/**
@@ -696,27 +750,45 @@ public class NanoHTTPD {
 		 * InterruptedException to stop further request processing.
 		 */
 		private void sendError(String status, String msg) throws InterruptedException {
+			keepAlive = false;
 			sendResponse(status, MIME_PLAINTEXT, null, new ByteArrayInputStream(msg.getBytes()));
 			throw new InterruptedException();
 		}
 
 		/**
-		 * Sends given response to the socket.
+		 * Sends given response to the socket. The connection is kept open when
+		 * the length of the response is known or it can be sent in chunks
 		 */
 		private void sendResponse(String status, String mime, Properties header, InputStream data) {
 			try {
 				if (status == null)
 					throw new Error("sendResponse(): Status can't be null.");
 
-				OutputStream out = mySocket.getOutputStream();
+				OutputStream out = new BufferedOutputStream(mySocket.getOutputStream(), 8192);
 				PrintWriter pw = new PrintWriter(out);
-				pw.print("HTTP/1.0 " + status + " \r\n");
+				pw.print((http11 ? "HTTP/1.1 " : "HTTP/1.0 ") + status + " \r\n");
 
 				if (mime != null)
 					pw.print("Content-Type: " + mime + "\r\n");
 
 				if (header == null || header.getProperty("Date") == null)
-					pw.print("Date: " + gmtFrmt.format(new Date()) + "\r\n");
+					pw.print("Date: " + formatDate(new Date()) + "\r\n");
+
+				boolean chunked = false;
+				if (getHeader(header, "content-length") == null) {
+					if (data == null) {
+						pw.print("Content-Length: 0\r\n");
+					} else if (data instanceof ByteArrayInputStream) {
+						pw.print("Content-Length: " + data.available() + "\r\n");
+					} else if (http11 && keepAlive) {
+						chunked = true;
+						pw.print("Transfer-Encoding: chunked\r\n");
+					} else {
+						// the end of the response is the end of the connection
+						keepAlive = false;
+					}
+				}
+				pw.print(keepAlive ? "Connection: keep-alive\r\n" : "Connection: close\r\n");
 
 				if (header != null) {
 					Enumeration e = header.keys();
@@ -730,31 +802,191 @@ public class NanoHTTPD {
 				pw.print("\r\n");
 				pw.flush();
 
-				if (data != null) {
-					byte[] buff = new byte[2048];
+				if (data instanceof FileRegion && !chunked) {
+					// big reads written to the socket, past the buffer of the
+					// headers
+					out.flush();
+					((FileRegion) data).writeTo(mySocket.getOutputStream());
+				} else if (data instanceof StreamBody) {
+					((StreamBody) data).writeTo(chunked ? new ChunkedOutputStream(out) : out);
+					if (chunked)
+						out.write(LAST_CHUNK);
+				} else if (data != null) {
+					byte[] buff = new byte[8192];
 					while (true) {
-						int read = data.read(buff, 0, 2048);
+						int read = data.read(buff, 0, buff.length);
 						if (read <= 0)
 							break;
+						if (chunked)
+							out.write((Integer.toHexString(read) + "\r\n").getBytes());
 						out.write(buff, 0, read);
+						if (chunked)
+							out.write(CRLF);
 					}
+					if (chunked)
+						out.write(LAST_CHUNK);
 				}
 				out.flush();
-				out.close();
+				if (!keepAlive)
+					out.close();
 				if (data != null)
 					data.close();
 			} catch (IOException ioe) {
 				// Couldn't write? No can do.
+				keepAlive = false;
 				try {
 					mySocket.close();
 				} catch (Throwable t) {
 				}
+				try {
+					if (data != null)
+						data.close();
+				} catch (Throwable t) {
+				}
 			}
 		}
 
+		private String getHeader(Properties header, String name) {
+			if (header == null)
+				return null;
+			Enumeration e = header.keys();
+			while (e.hasMoreElements()) {
+				String key = (String) e.nextElement();
+				if (key.equalsIgnoreCase(name))
+					return header.getProperty(key);
+			}
+			return null;
+		}
+
+		private boolean keepAlive;
+		private boolean http11;
 		private Socket mySocket;
 	}
 
+	/**
+	 * Where an uploaded file is written. By default a temporary file,
+	 * override it to write the file straight to its final place. parms has the
+	 * parameters of the URI and the fields sent before the file
+	 */
+	protected File getUploadFile(String uri, Properties header, Properties parms, String field, String filename)
+			throws IOException {
+		return File.createTempFile("NanoHTTPD", "", new File(System.getProperty("java.io.tmpdir")));
+	}
+
+	private static String unquote(String s) {
+		if (s.length() >= 2 && s.charAt(0) == '"' && s.charAt(s.length() - 1) == '"')
+			return s.substring(1, s.length() - 1);
+		return s;
+	}
+
+	private static String readLine(InputStream is) throws IOException {
+		StringBuilder line = new StringBuilder();
+		int b;
+		while ((b = is.read()) >= 0 && b != '\n') {
+			if (b != '\r')
+				line.append((char) b);
+		}
+		if (b < 0 && line.length() == 0)
+			throw new IOException("Connection closed");
+		return line.toString();
+	}
+
+	/**
+	 * Copies up to size bytes, null discards them
+	 */
+	private static void copy(InputStream is, OutputStream out, long size) throws IOException {
+		byte[] buf = new byte[2048];
+		while (size > 0) {
+			int rlen = is.read(buf, 0, (int) Math.min(buf.length, size));
+			if (rlen < 0)
+				break;
+			if (out != null)
+				out.write(buf, 0, rlen);
+			size -= rlen;
+		}
+	}
+
+	/**
+	 * Body with a content-length, it never reads past it
+	 */
+	private static class FixedLengthInputStream extends InputStream {
+		private final InputStream in;
+		private long remaining;
+
+		FixedLengthInputStream(InputStream in, long length) {
+			this.in = in;
+			this.remaining = length;
+		}
+
+		@Override
+		public int read() throws IOException {
+			byte[] b = new byte[1];
+			return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (remaining <= 0)
+				return -1;
+			int read = in.read(b, off, (int) Math.min(len, remaining));
+			if (read < 0)
+				throw new IOException("Connection closed before the end of the body");
+			remaining -= read;
+			return read;
+		}
+	}
+
+	/**
+	 * Body sent with Transfer-Encoding: chunked
+	 */
+	private static class ChunkedInputStream extends InputStream {
+		private final InputStream in;
+		private long chunk;
+		private boolean last;
+
+		ChunkedInputStream(InputStream in) {
+			this.in = in;
+		}
+
+		@Override
+		public int read() throws IOException {
+			byte[] b = new byte[1];
+			return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (last)
+				return -1;
+			if (chunk == 0) {
+				String size = readLine(in).trim();
+				int ext = size.indexOf(';');
+				if (ext >= 0)
+					size = size.substring(0, ext);
+				try {
+					chunk = Long.parseLong(size, 16);
+				} catch (NumberFormatException e) {
+					throw new IOException("Wrong chunk size");
+				}
+				if (chunk == 0) {
+					// trailers
+					last = true;
+					while (readLine(in).length() > 0)
+						;
+					return -1;
+				}
+			}
+
+			int read = in.read(b, off, (int) Math.min(len, chunk));
+			if (read < 0)
+				throw new IOException("Connection closed before the end of the body");
+			chunk -= read;
+			if (chunk == 0)
+				readLine(in);
+			return read;
+		}
+	}
+
 	/**
 	 * URL-encodes everything between "/"-characters. Encodes spaces as '%20'
 	 * instead of '+'.
@@ -781,6 +1013,23 @@ public class NanoHTTPD {
 	private int myTcpPort;
 	private final ServerSocket myServerSocket;
 	private Thread myThread;
+	private final ThreadPoolExecutor myWorkers;
+	private volatile long rejectedConnections;
+
+	// more workers than the connections a browser opens to one host, the
+	// threads are only created when needed
+	public static final int DEFAULT_WORKERS = 12, DEFAULT_QUEUE_SIZE = 32, SOCKET_READ_TIMEOUT = 10000;
+
+	// persistent connections are closed after being idle for a while or
+	// after some requests so a few clients can't hold all the workers
+	public static final int KEEP_ALIVE_TIMEOUT = 1000, MAX_KEEP_ALIVE_REQUESTS = 100, HEADER_LIMIT = 8192;
+	// how often an idle connection checks if others wait for a worker
+	public static final int IDLE_POLL_INTERVAL = 100;
+	// multipart fields that are not files are kept in memory
+	public static final int MAX_FIELD_SIZE = 64 * 1024;
+
+	private static final byte[] CRLF = { '\r', '\n' };
+	private static final byte[] LAST_CHUNK = { '0', '\r', '\n', '\r', '\n' };
 
 	// ==================================================
 	// File server code
@@ -883,33 +1132,161 @@ public class NanoHTTPD {
 			if (mime == null)
 				mime = MIME_DEFAULT_BINARY;
 
-			// Support (simple) skipping:
-			long startFrom = 0;
+			// Range requests, a single range is supported. A range that ends
+			// before it starts is ignored and the whole file is sent
+			long length = f.length();
+			long start = 0;
+			long end = length - 1;
+			boolean partial = false;
 			String range = header.getProperty("range");
-			if (range != null) {
-				if (range.startsWith("bytes=")) {
-					range = range.substring("bytes=".length());
-					int minus = range.indexOf('-');
-					if (minus > 0)
-						range = range.substring(0, minus);
-					try {
-						startFrom = Long.parseLong(range);
-					} catch (NumberFormatException nfe) {
+			if (range != null && range.startsWith("bytes=") && range.indexOf(',') < 0) {
+				range = range.substring("bytes=".length()).trim();
+				int minus = range.indexOf('-');
+				try {
+					if (minus == 0) {
+						// last n bytes
+						start = Math.max(0, length - Long.parseLong(range.substring(1)));
+						partial = true;
+					} else if (minus > 0) {
+						long first = Long.parseLong(range.substring(0, minus));
+						long last = minus < range.length() - 1 ? Long.parseLong(range.substring(minus + 1))
+								: Long.MAX_VALUE;
+						if (first <= last) {
+							start = first;
+							end = Math.min(end, last);
+							partial = true;
+						}
 					}
+				} catch (NumberFormatException nfe) {
+				}
+
+				if (partial && start >= length) {
+					Response r = new Response(HTTP_RANGE_NOT_SATISFIABLE, MIME_PLAINTEXT, "");
+					r.addHeader("Content-Range", "bytes */" + length);
+					return r;
 				}
 			}
 
-			FileInputStream fis = new FileInputStream(f);
-			fis.skip(startFrom);
-			Response r = new Response(HTTP_OK, mime, fis);
-			r.addHeader("Content-length", "" + (f.length() - startFrom));
-			r.addHeader("Content-range", "" + startFrom + "-" + (f.length() - 1) + "/" + f.length());
+			FileRegion region = new FileRegion(f, start, end - start + 1);
+			Response r = new Response(partial ? HTTP_PARTIALCONTENT : HTTP_OK, mime, region);
+			r.addHeader("Content-Length", "" + (end - start + 1));
+			r.addHeader("Accept-Ranges", "bytes");
+			if (partial)
+				r.addHeader("Content-Range", "bytes " + start + "-" + end + "/" + length);
 			return r;
 		} catch (IOException ioe) {
 			return new Response(HTTP_FORBIDDEN, MIME_PLAINTEXT, "FORBIDDEN: Reading file failed.");
 		}
 	}
 
+	/**
+	 * Part of a file to be sent. sendResponse copies it to the socket with
+	 * a bigger buffer than the other responses, as a stream it reads the same
+	 * part
+	 */
+	public static class FileRegion extends InputStream {
+		private static final int FILE_BUFFER_SIZE = 64 * 1024;
+
+		private final FileInputStream fis;
+		private final FileChannel channel;
+		private long position;
+		private long remaining;
+
+		public FileRegion(File f, long position, long length) throws IOException {
+			this.fis = new FileInputStream(f);
+			this.channel = fis.getChannel();
+			this.position = position;
+			this.remaining = length;
+		}
+
+		public void writeTo(OutputStream out) throws IOException {
+			byte[] buff = new byte[FILE_BUFFER_SIZE];
+			while (remaining > 0) {
+				int read = read(buff, 0, buff.length);
+				if (read <= 0)
+					throw new IOException("File truncated while sending it");
+				out.write(buff, 0, read);
+			}
+		}
+
+		@Override
+		public int read() throws IOException {
+			byte[] b = new byte[1];
+			return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (remaining <= 0)
+				return -1;
+			int read = channel.read(ByteBuffer.wrap(b, off, (int) Math.min(len, remaining)), position);
+			if (read > 0) {
+				position += read;
+				remaining -= read;
+			}
+			return read;
+		}
+
+		@Override
+		public int available() {
+			return (int) Math.min(Integer.MAX_VALUE, remaining);
+		}
+
+		@Override
+		public void close() throws IOException {
+			fis.close();
+		}
+	}
+
+	/**
+	 * Body that writes itself to the connection as it is produced, such as a
+	 * zip made on the fly. Without a Content-Length header it is sent in
+	 * chunks
+	 */
+	public static abstract class StreamBody extends InputStream {
+		public abstract void writeTo(OutputStream out) throws IOException;
+
+		@Override
+		public int read() throws IOException {
+			throw new IOException("StreamBody can only be written");
+		}
+	}
+
+	/**
+	 * Each write is sent as a chunk, closing it doesn't close the connection
+	 */
+	private static class ChunkedOutputStream extends OutputStream {
+		private final OutputStream out;
+
+		ChunkedOutputStream(OutputStream out) {
+			this.out = out;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[] { (byte) b }, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			if (len == 0)
+				return;
+			out.write((Integer.toHexString(len) + "\r\n").getBytes());
+			out.write(b, off, len);
+			out.write(CRLF);
+		}
+
+		@Override
+		public void flush() throws IOException {
+			out.flush();
+		}
+
+		@Override
+		public void close() throws IOException {
+			flush();
+		}
+	}
+
 	/**
 	 * Hashtable mapping (String)FILENAME_EXTENSION -> (String)MIME_TYPE
 	 */
@@ -934,6 +1311,25 @@ public class NanoHTTPD {
 		gmtFrmt.setTimeZone(TimeZone.getTimeZone("GMT"));
 	}
 
+	/**
+	 * HTTP date, the format is shared by the workers so it is locked
+	 */
+	public static String formatDate(Date date) {
+		synchronized (gmtFrmt) {
+			return gmtFrmt.format(date);
+		}
+	}
+
+	public static Date parseDate(String date) {
+		synchronized (gmtFrmt) {
+			try {
+				return gmtFrmt.parse(date);
+			} catch (java.text.ParseException e) {
+				return null;
+			}
+		}
+	}
+
 	/**
 	 * The distribution licence
 	 */
@@ -55,6 +55,7 @@ public class AccelerometerManager extends CustomSensorManager implements WhatIsR
 
 	public AccelerometerManager(Context c) {
 		super(c);
+		dimensions = 3;
 
 		// register
 		sensor = sensormanager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER);
@@ -63,6 +64,8 @@ public class AccelerometerManager extends CustomSensorManager implements WhatIsR
 
 			@Override
 			public void onSensorChanged(SensorEvent event) {
+				addSample(event);
+
 				// listener
 				for (CustomSensorListener l : listeners) {
 					((AccelerometerListener) l).onAccelerometerChanged(event.values[0], event.values[1],
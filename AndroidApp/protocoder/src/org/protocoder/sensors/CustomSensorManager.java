@@ -32,6 +32,7 @@ import java.util.Vector;
 
 import android.content.Context;
 import android.hardware.Sensor;
+import android.hardware.SensorEvent;
 import android.hardware.SensorEventListener;
 import android.hardware.SensorManager;
 
@@ -52,6 +53,10 @@ public class CustomSensorManager {
 	SensorManager sensormanager;
 	SensorEventListener listener;
 
+	// values of each sample and the batch they go to when batching is on
+	int dimensions = 1;
+	SensorBatch batch;
+
 	public CustomSensorManager(Context c) {
 		listeners = new Vector<CustomSensorListener>();
 		sensormanager = (SensorManager) c.getSystemService(Context.SENSOR_SERVICE);
@@ -70,6 +75,23 @@ public class CustomSensorManager {
 	public void stop() {
 		running = false;
 		sensormanager.unregisterListener(listener);
+		if (batch != null) {
+			batch.flush();
+		}
+	}
+
+	/**
+	 * Samples are also collected and delivered in batches of n samples or
+	 * every interval ms
+	 */
+	public void setBatch(int samples, int interval, SensorBatch.BatchListener l) {
+		batch = l == null ? null : new SensorBatch(dimensions, samples, interval, l);
+	}
+
+	void addSample(SensorEvent event) {
+		if (batch != null) {
+			batch.add(event.values, event.timestamp);
+		}
 	}
 
 	public void addListener(CustomSensorListener listener) {
@@ -46,6 +46,7 @@ public class GyroscopeManager extends CustomSensorManager implements WhatIsRunni
 
 	public GyroscopeManager(Context c) {
 		super(c);
+		dimensions = 3;
 
 		// register
 		sensor = sensormanager.getDefaultSensor(Sensor.TYPE_GYROSCOPE);
@@ -54,6 +55,8 @@ public class GyroscopeManager extends CustomSensorManager implements WhatIsRunni
 
 			@Override
 			public void onSensorChanged(SensorEvent event) {
+				addSample(event);
+
 				// listener
 				for (CustomSensorListener l : listeners) {
 					((GyroscopeListener) l).onGyroscopeChanged(event.values[0], event.values[1], event.values[2]);
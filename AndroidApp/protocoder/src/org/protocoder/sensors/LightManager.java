@@ -54,6 +54,8 @@ public class LightManager extends CustomSensorManager implements WhatIsRunningIn
 
 			@Override
 			public void onSensorChanged(SensorEvent event) {
+				addSample(event);
+
 				// listener
 				for (CustomSensorListener l : listeners) {
 					((LightListener) l).onLightChanged(event.values[0]);
@@ -54,6 +54,8 @@ public class MagneticManager extends CustomSensorManager implements WhatIsRunnin
 
 			@Override
 			public void onSensorChanged(SensorEvent event) {
+				addSample(event);
+
 				// listener
 				for (CustomSensorListener l : listeners) {
 					((MagneticListener) l).onMagneticChanged(event.values[0]);
@@ -42,6 +42,7 @@ public class OrientationManager extends CustomSensorManager implements WhatIsRun
 	@SuppressWarnings("deprecation")
 	public OrientationManager(Context c) {
 		super(c);
+		dimensions = 3;
 
 		sensor = sensormanager.getDefaultSensor(Sensor.TYPE_ORIENTATION);
 
@@ -49,6 +50,7 @@ public class OrientationManager extends CustomSensorManager implements WhatIsRun
 
 			@Override
 			public void onSensorChanged(SensorEvent event) {
+				addSample(event);
 
 				for (CustomSensorListener l : listeners) {
 					((OrientationListener) l).onOrientation(event.values[0], event.values[1], event.values[2]);
@@ -54,6 +54,8 @@ public class PressureManager extends CustomSensorManager implements WhatIsRunnin
 
 			@Override
 			public void onSensorChanged(SensorEvent event) {
+				addSample(event);
+
 				// listener
 				for (CustomSensorListener l : listeners) {
 					((PressureListener) l).onPressureChanged(event.values[0]);
@@ -72,6 +72,8 @@ public class ProximityManager extends CustomSensorManager implements WhatIsRunni
 
 			@Override
 			public void onSensorChanged(SensorEvent event) {
+				addSample(event);
+
 				// listener
 				for (ProximityListener l : listeners) {
 					l.onDistanceChanged(event.values[0]);
@@ -113,6 +115,9 @@ public class ProximityManager extends CustomSensorManager implements WhatIsRunni
 	public void stop() {
 		running = false;
 		sensormanager.unregisterListener(proximityListener);
+		if (batch != null) {
+			batch.flush();
+		}
 	}
 
 	public void addListener(ProximityListener distanceListener) {
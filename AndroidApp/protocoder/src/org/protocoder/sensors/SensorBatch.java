@@ -0,0 +1,120 @@
+/*
+ * Protocoder 
+ * A prototyping platform for Android devices 
+ * 
+ * Victor Diaz Barrales victormdb@gmail.com
+ *
+ * Copyright (C) 2013 Motorola Mobility LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions: 
+ * 
+ * The above copyright notice and this permission notice shall be included in all 
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN 
+ * THE SOFTWARE.
+ * 
+ */
+
+package org.protocoder.sensors;
+
+import android.os.Handler;
+import android.os.Looper;
+
+/**
+ * Accumulates sensor samples in primitive arrays and hands them over every n
+ * samples or every interval ms, whatever comes first. The values of each
+ * sample are stored one after the other, x0 y0 z0 x1 y1 z1 ...
+ * 
+ * The samples arrive in the main thread, where the interval timer runs too
+ */
+public class SensorBatch {
+
+	public interface BatchListener {
+
+		public void onSamples(float[] values, double[] timestamps, int dimensions);
+
+	}
+
+	private final int dimensions;
+	private final int samples;
+	private final long interval;
+	private final BatchListener listener;
+	private final Handler handler = new Handler(Looper.getMainLooper());
+
+	private float[] values;
+	private double[] timestamps;
+	private int count;
+
+	public SensorBatch(int dimensions, int samples, int interval, BatchListener listener) {
+		this.dimensions = dimensions;
+		this.samples = Math.max(1, samples);
+		this.interval = interval;
+		this.listener = listener;
+
+		values = new float[this.samples * dimensions];
+		timestamps = new double[this.samples];
+	}
+
+	/**
+	 * timestamp in nanoseconds as given by the sensor event
+	 */
+	public synchronized void add(float[] sample, long timestamp) {
+		System.arraycopy(sample, 0, values, count * dimensions, dimensions);
+		timestamps[count] = timestamp / 1000000.0;
+		count++;
+
+		// sensors that only report changes can stay quiet for long
+		if (count == 1 && interval > 0) {
+			handler.postDelayed(flushTask, interval);
+		}
+
+		if (count == samples || (interval > 0 && timestamps[count - 1] - timestamps[0] >= interval)) {
+			flush();
+		}
+	}
+
+	/**
+	 * Hands over the samples collected so far, the arrays are not reused
+	 * since the script gets them in another thread
+	 */
+	public synchronized void flush() {
+		handler.removeCallbacks(flushTask);
+		if (count == 0) {
+			return;
+		}
+
+		float[] batchValues = values;
+		double[] batchTimestamps = timestamps;
+		if (count < samples) {
+			batchValues = new float[count * dimensions];
+			batchTimestamps = new double[count];
+			System.arraycopy(values, 0, batchValues, 0, batchValues.length);
+			System.arraycopy(timestamps, 0, batchTimestamps, 0, count);
+		} else {
+			values = new float[samples * dimensions];
+			timestamps = new double[samples];
+		}
+		count = 0;
+
+		listener.onSamples(batchValues, batchTimestamps, dimensions);
+	}
+
+	private final Runnable flushTask = new Runnable() {
+		@Override
+		public void run() {
+			flush();
+		}
+	};
+
+}
@@ -0,0 +1,344 @@
+/*
+ * Protocoder 
+ * A prototyping platform for Android devices 
+ * 
+ * Victor Diaz Barrales victormdb@gmail.com
+ *
+ * Copyright (C) 2013 Motorola Mobility LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions: 
+ * 
+ * The above copyright notice and this permission notice shall be included in all 
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN 
+ * THE SOFTWARE.
+ * 
+ */
+
+package org.protocoder.utils;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import android.content.res.AssetManager;
+import android.util.Log;
+
+/**
+ * Copies a folder of the assets to the storage. The build writes
+ * assets.manifest in the folder with the sha1 of every file, what was
+ * installed is written to a record outside of the copy so the next install
+ * only copies the files that are missing or changed, and removes the ones
+ * that are not in the app anymore. Without a manifest everything is copied
+ */
+public class AssetInstaller {
+
+	private static final String TAG = "AssetInstaller";
+
+	public static final String MANIFEST = "assets.manifest";
+	private static final int THREADS = 4;
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private final AssetManager assets;
+	private final String assetsPath;
+	private final File target;
+	private final File record;
+
+	private final AtomicInteger done = new AtomicInteger();
+	private final Set<String> failed = Collections.synchronizedSet(new HashSet<String>());
+	private int total;
+
+	public interface ProgressListener {
+		void onProgress(int done, int total);
+	}
+
+	static class Installed {
+		String hash;
+		long size;
+		long lastModified;
+	}
+
+	public AssetInstaller(AssetManager assets, String assetsPath, File target, File record) {
+		this.assets = assets;
+		this.assetsPath = assetsPath;
+		this.target = target;
+		this.record = record;
+	}
+
+	/**
+	 * Blocks until the files are copied, returns false if some couldn't be
+	 */
+	public boolean install(final ProgressListener listener) {
+		long start = System.currentTimeMillis();
+		target.mkdirs();
+
+		// path -> sha1 of the files in the app, null if there is no manifest
+		HashMap<String, String> manifest = readManifest();
+		HashMap<String, Installed> installed = readInstalled();
+
+		final ArrayList<String> copies = new ArrayList<String>();
+		if (manifest == null) {
+			listAssets(assetsPath, "", copies);
+			installed.clear();
+		} else {
+			for (Map.Entry<String, String> e : manifest.entrySet()) {
+				if (!isInstalled(e.getKey(), e.getValue(), installed.get(e.getKey()))) {
+					copies.add(e.getKey());
+				}
+			}
+
+			// files that were installed but are not in the app anymore
+			for (String path : installed.keySet()) {
+				if (!manifest.containsKey(path)) {
+					new File(target, path).delete();
+				}
+			}
+		}
+
+		total = copies.size();
+		done.set(0);
+		failed.clear();
+		if (listener != null) {
+			listener.onProgress(0, total);
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+		for (final String path : copies) {
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					if (!copy(path)) {
+						failed.add(path);
+					}
+					int n = done.incrementAndGet();
+					if (listener != null) {
+						listener.onProgress(n, total);
+					}
+				}
+			});
+		}
+		executor.shutdown();
+		try {
+			executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			executor.shutdownNow();
+			return false;
+		}
+
+		if (manifest != null) {
+			writeInstalled(manifest, installed, copies);
+		}
+
+		Log.d(TAG, "installed " + assetsPath + " copied " + total + " failed " + failed.size() + " in "
+				+ (System.currentTimeMillis() - start) + " ms");
+
+		return failed.isEmpty();
+	}
+
+	public int getTotal() {
+		return total;
+	}
+
+	public int getDone() {
+		return done.get();
+	}
+
+	/**
+	 * The copy is the same as in the manifest and hasn't been touched since
+	 */
+	private boolean isInstalled(String path, String hash, Installed installed) {
+		if (installed == null || !hash.equals(installed.hash)) {
+			return false;
+		}
+
+		File f = new File(target, path);
+		return f.exists() && f.length() == installed.size && f.lastModified() == installed.lastModified;
+	}
+
+	private HashMap<String, String> readManifest() {
+		HashMap<String, String> manifest = new HashMap<String, String>();
+		try {
+			BufferedReader reader = new BufferedReader(new InputStreamReader(assets.open(assetsPath + "/" + MANIFEST),
+					"UTF-8"));
+			try {
+				String line;
+				while ((line = reader.readLine()) != null) {
+					int space = line.indexOf(' ');
+					if (space > 0) {
+						manifest.put(line.substring(space + 1), line.substring(0, space));
+					}
+				}
+			} finally {
+				reader.close();
+			}
+		} catch (IOException e) {
+			Log.d(TAG, "no manifest in " + assetsPath + ", copying everything");
+			return null;
+		}
+
+		return manifest;
+	}
+
+	/**
+	 * Lines of sha1 size lastModified path
+	 */
+	private HashMap<String, Installed> readInstalled() {
+		HashMap<String, Installed> installed = new HashMap<String, Installed>();
+		File f = record;
+		if (!f.exists()) {
+			return installed;
+		}
+
+		try {
+			BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(f), "UTF-8"));
+			try {
+				String line;
+				while ((line = reader.readLine()) != null) {
+					String[] parts = line.split(" ", 4);
+					if (parts.length == 4) {
+						Installed i = new Installed();
+						i.hash = parts[0];
+						i.size = Long.parseLong(parts[1]);
+						i.lastModified = Long.parseLong(parts[2]);
+						installed.put(parts[3], i);
+					}
+				}
+			} finally {
+				reader.close();
+			}
+		} catch (Exception e) {
+			// everything gets copied again
+			Log.d(TAG, "cannot read " + f + " " + e);
+			installed.clear();
+		}
+
+		return installed;
+	}
+
+	private void writeInstalled(HashMap<String, String> manifest, HashMap<String, Installed> installed,
+			ArrayList<String> copied) {
+		File f = record;
+		File tmp = new File(record.getPath() + ".tmp");
+		try {
+			Writer writer = new OutputStreamWriter(new FileOutputStream(tmp), "UTF-8");
+			try {
+				for (Map.Entry<String, String> e : manifest.entrySet()) {
+					File copy = new File(target, e.getKey());
+					if (!copy.exists() || failed.contains(e.getKey())) {
+						continue;
+					}
+					Installed previous = installed.get(e.getKey());
+					if (previous == null && !copied.contains(e.getKey())) {
+						continue;
+					}
+					writer.write(e.getValue() + " " + copy.length() + " " + copy.lastModified() + " " + e.getKey()
+							+ "\n");
+				}
+			} finally {
+				writer.close();
+			}
+			tmp.renameTo(f);
+		} catch (IOException e) {
+			Log.d(TAG, "cannot write " + f + " " + e);
+			tmp.delete();
+		}
+	}
+
+	private void listAssets(String path, String relative, ArrayList<String> out) {
+		String[] names;
+		try {
+			names = assets.list(path);
+		} catch (IOException e) {
+			return;
+		}
+
+		for (String name : names) {
+			String child = relative.length() == 0 ? name : relative + "/" + name;
+			String[] sub;
+			try {
+				sub = assets.list(path + "/" + name);
+			} catch (IOException e) {
+				sub = null;
+			}
+
+			if (sub != null && sub.length > 0) {
+				listAssets(path + "/" + name, child, out);
+			} else if (!name.equals(MANIFEST)) {
+				out.add(child);
+			}
+		}
+	}
+
+	private boolean copy(String path) {
+		File f = new File(target, path);
+		File tmp = new File(f.getParentFile(), "." + f.getName() + ".tmp");
+		f.getParentFile().mkdirs();
+
+		InputStream in = null;
+		OutputStream out = null;
+		try {
+			in = assets.open(assetsPath + "/" + path);
+			out = new FileOutputStream(tmp);
+			byte[] buffer = new byte[BUFFER_SIZE];
+			int read;
+			while ((read = in.read(buffer)) != -1) {
+				out.write(buffer, 0, read);
+			}
+			out.close();
+			out = null;
+
+			if (!tmp.renameTo(f)) {
+				f.delete();
+				if (!tmp.renameTo(f)) {
+					throw new IOException("cannot replace " + f);
+				}
+			}
+			return true;
+		} catch (IOException e) {
+			Log.d(TAG, "cannot copy " + path + " " + e);
+			tmp.delete();
+			return false;
+		} finally {
+			closeQuietly(in);
+			closeQuietly(out);
+		}
+	}
+
+	private void closeQuietly(java.io.Closeable c) {
+		if (c != null) {
+			try {
+				c.close();
+			} catch (IOException e) {
+			}
+		}
+	}
+
+}
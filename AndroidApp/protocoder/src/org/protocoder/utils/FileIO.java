@@ -46,8 +46,6 @@ import java.io.UnsupportedEncodingException;
 import java.nio.channels.FileChannel;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
 
 import org.protocoder.apprunner.AppRunnerSettings;
 import org.protocoder.base.BaseMainApp;
@@ -530,38 +528,11 @@ public class FileIO {
 	}
 
 	static public void zipFolder(String srcFolder, String destZipFile) throws Exception {
-		ZipOutputStream zip = null;
-		FileOutputStream fileWriter = null;
-		fileWriter = new FileOutputStream(destZipFile);
-		zip = new ZipOutputStream(fileWriter);
-		addFolderToZip("", srcFolder, zip);
-		zip.flush();
-		zip.close();
-	}
-
-	static private void addFileToZip(String path, String srcFile, ZipOutputStream zip) throws Exception {
-		File folder = new File(srcFile);
-		if (folder.isDirectory()) {
-			addFolderToZip(path, srcFile, zip);
-		} else {
-			byte[] buf = new byte[1024];
-			int len;
-			FileInputStream in = new FileInputStream(srcFile);
-			zip.putNextEntry(new ZipEntry(path + "/" + folder.getName()));
-			while ((len = in.read(buf)) > 0) {
-				zip.write(buf, 0, len);
-			}
-		}
-	}
-
-	static private void addFolderToZip(String path, String srcFolder, ZipOutputStream zip) throws Exception {
-		File folder = new File(srcFolder);
-		for (String fileName : folder.list()) {
-			if (path.equals("")) {
-				addFileToZip(folder.getName(), srcFolder + "/" + fileName, zip);
-			} else {
-				addFileToZip(path + "/" + folder.getName(), srcFolder + "/" + fileName, zip);
-			}
+		OutputStream out = new FileOutputStream(destZipFile);
+		try {
+			new ZipStreamer(new File(srcFolder)).writeTo(out);
+		} finally {
+			out.close();
 		}
 	}
 }
@@ -28,6 +28,10 @@
 
 package org.protocoder.utils;
 
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
 import org.apache.commons.lang3.RandomStringUtils;
 
 public class StrUtils {
@@ -55,4 +59,36 @@ public class StrUtils {
 		return out;
 	}
 
+	/**
+	 * Hex encoded SHA-1 of the content, used to know when something changed
+	 */
+	public static String sha1(byte[] b) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-1");
+			return toHex(digest.digest(b));
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	public static String sha1(String s) {
+		try {
+			return sha1(s.getBytes("UTF-8"));
+		} catch (UnsupportedEncodingException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	public static String toHex(byte[] b) {
+		char[] hex = "0123456789abcdef".toCharArray();
+		char[] out = new char[b.length * 2];
+
+		for (int i = 0; i < b.length; i++) {
+			out[i * 2] = hex[(b[i] >> 4) & 0x0f];
+			out[i * 2 + 1] = hex[b[i] & 0x0f];
+		}
+
+		return new String(out);
+	}
+
 }
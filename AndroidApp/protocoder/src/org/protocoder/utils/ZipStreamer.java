@@ -0,0 +1,464 @@
+/*
+ * Protocoder 
+ * A prototyping platform for Android devices 
+ * 
+ * Victor Diaz Barrales victormdb@gmail.com
+ *
+ * Copyright (C) 2013 Motorola Mobility LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions: 
+ * 
+ * The above copyright notice and this permission notice shall be included in all 
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN 
+ * THE SOFTWARE.
+ * 
+ */
+
+package org.protocoder.utils;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes a folder as a zip to any stream, so it can go straight to a socket.
+ * The files are compressed at the same time on a pool of threads and written
+ * in order as they are ready, files that are already compressed (images,
+ * audio, video...) are stored as they are
+ */
+public class ZipStreamer {
+
+	private static final String TAG = "ZipStreamer";
+
+	// files bigger than this are compressed while writing instead of in memory
+	private static final int MAX_PARALLEL_SIZE = 4 * 1024 * 1024;
+	// memory the files being compressed ahead can take, with their
+	// compressed copies
+	private static final long MAX_WINDOW_MEMORY = 12 * 1024 * 1024;
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private static final String[] STORED = { "jpg", "jpeg", "png", "gif", "webp", "mp3", "mp4", "m4a", "aac", "ogg",
+			"3gp", "webm", "mkv", "zip", "gz", "apk", "jar" };
+
+	private static final int METHOD_STORED = 0;
+	private static final int METHOD_DEFLATED = 8;
+	private static final int FLAG_DESCRIPTOR = 0x0008;
+	private static final int FLAG_UTF8 = 0x0800;
+
+	private static ExecutorService executor;
+	private static int threads;
+
+	private final File folder;
+
+	private OutputStream out;
+	private long written;
+	private final ArrayList<Entry> entries = new ArrayList<Entry>();
+
+	static class Entry {
+		File file;
+		byte[] name;
+		int method;
+		int flags = FLAG_UTF8;
+		long crc;
+		long size;
+		long compressedSize;
+		int time;
+		long offset;
+		// compressed or stored content when it was prepared in memory
+		byte[] data;
+	}
+
+	public ZipStreamer(File folder) {
+		this.folder = folder;
+	}
+
+	private static synchronized ExecutorService getExecutor() {
+		if (executor == null) {
+			threads = Math.max(1, Runtime.getRuntime().availableProcessors());
+			executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, TAG);
+					t.setDaemon(true);
+					t.setPriority(Thread.MIN_PRIORITY);
+					return t;
+				}
+			});
+		}
+		return executor;
+	}
+
+	/**
+	 * Writes the zip, the entries are named after the folder as zipFolder did
+	 */
+	public void writeTo(OutputStream out) throws IOException {
+		this.out = new BufferedOutputStream(out, BUFFER_SIZE);
+		written = 0;
+		entries.clear();
+
+		ArrayList<String> names = new ArrayList<String>();
+		ArrayList<File> files = new ArrayList<File>();
+		list(folder, folder.getName(), names, files);
+		if (files.size() >= 0xffff) {
+			throw new IOException("too many files for a zip " + files.size());
+		}
+
+		// only a few files are compressed ahead, bounded by count and by the
+		// memory they take so big files don't add up
+		ExecutorService executor = getExecutor();
+		int window = threads * 2;
+		LinkedList<Future<Entry>> pending = new LinkedList<Future<Entry>>();
+		LinkedList<Long> pendingMemory = new LinkedList<Long>();
+		long memory = 0;
+		int next = 0;
+
+		try {
+			while (next < files.size() || !pending.isEmpty()) {
+				while (next < files.size() && pending.size() < window) {
+					long cost = memoryCost(files.get(next), names.get(next));
+					if (!pending.isEmpty() && memory + cost > MAX_WINDOW_MEMORY) {
+						break;
+					}
+					pending.add(executor.submit(prepare(files.get(next), names.get(next))));
+					pendingMemory.add(cost);
+					memory += cost;
+					next++;
+				}
+
+				Entry entry = pending.removeFirst().get();
+				writeEntry(entry);
+				entry.data = null;
+				entries.add(entry);
+				memory -= pendingMemory.removeFirst();
+			}
+		} catch (InterruptedException e) {
+			throw new IOException("interrupted");
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			}
+			throw new IOException(String.valueOf(cause));
+		} finally {
+			for (Future<Entry> f : pending) {
+				f.cancel(true);
+			}
+		}
+
+		writeCentralDirectory();
+		this.out.flush();
+	}
+
+	private void list(File dir, String path, ArrayList<String> names, ArrayList<File> files) {
+		String[] all = dir.list();
+		if (all == null) {
+			return;
+		}
+
+		for (String name : all) {
+			File f = new File(dir, name);
+			if (f.isDirectory()) {
+				list(f, path + "/" + name, names, files);
+			} else {
+				names.add(path + "/" + name);
+				files.add(f);
+			}
+		}
+	}
+
+	private static boolean isStored(String name) {
+		int dot = name.lastIndexOf('.');
+		if (dot < 0) {
+			return false;
+		}
+
+		String ext = name.substring(dot + 1).toLowerCase();
+		for (String s : STORED) {
+			if (s.equals(ext)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Bytes held while the file waits to be written, the content and its
+	 * compressed copy. The files stored or compressed by the writer are not
+	 * kept in memory
+	 */
+	private static long memoryCost(File file, String name) {
+		long length = file.length();
+		if (isStored(name) || length > MAX_PARALLEL_SIZE) {
+			return 0;
+		}
+		return length * 2;
+	}
+
+	/**
+	 * Work done on the pool, everything that can be known about the entry
+	 * before writing it
+	 */
+	private static Callable<Entry> prepare(final File file, final String name) {
+		return new Callable<Entry>() {
+			@Override
+			public Entry call() throws Exception {
+				Entry entry = new Entry();
+				entry.file = file;
+				entry.name = name.getBytes("UTF-8");
+				entry.time = dosTime(file.lastModified());
+				long length = file.length();
+
+				if (isStored(name)) {
+					entry.method = METHOD_STORED;
+					entry.crc = crc(file);
+					entry.size = length;
+					entry.compressedSize = length;
+				} else if (length > MAX_PARALLEL_SIZE) {
+					// compressed by the writer, sizes go after the data
+					entry.method = METHOD_DEFLATED;
+					entry.flags |= FLAG_DESCRIPTOR;
+				} else {
+					deflate(entry, readFile(file));
+				}
+
+				return entry;
+			}
+		};
+	}
+
+	private static void deflate(Entry entry, byte[] content) {
+		CRC32 crc = new CRC32();
+		crc.update(content, 0, content.length);
+		entry.crc = crc.getValue();
+		entry.size = content.length;
+
+		Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream(Math.max(64, content.length / 2));
+		try {
+			deflater.setInput(content);
+			deflater.finish();
+			byte[] buff = new byte[BUFFER_SIZE];
+			while (!deflater.finished()) {
+				int n = deflater.deflate(buff);
+				compressed.write(buff, 0, n);
+			}
+		} finally {
+			deflater.end();
+		}
+
+		if (compressed.size() < content.length) {
+			entry.method = METHOD_DEFLATED;
+			entry.data = compressed.toByteArray();
+		} else {
+			// doesn't get smaller, not worth it
+			entry.method = METHOD_STORED;
+			entry.data = content;
+		}
+		entry.compressedSize = entry.data.length;
+	}
+
+	private static long crc(File file) throws IOException {
+		CRC32 crc = new CRC32();
+		InputStream in = new FileInputStream(file);
+		try {
+			byte[] buff = new byte[BUFFER_SIZE];
+			int read;
+			while ((read = in.read(buff)) > 0) {
+				crc.update(buff, 0, read);
+			}
+		} finally {
+			in.close();
+		}
+		return crc.getValue();
+	}
+
+	private static byte[] readFile(File file) throws IOException {
+		InputStream in = new FileInputStream(file);
+		try {
+			byte[] data = new byte[(int) file.length()];
+			int off = 0;
+			while (off < data.length) {
+				int read = in.read(data, off, data.length - off);
+				if (read < 0) {
+					throw new IOException("file changed while reading " + file);
+				}
+				off += read;
+			}
+			return data;
+		} finally {
+			in.close();
+		}
+	}
+
+	private void writeEntry(Entry entry) throws IOException {
+		entry.offset = written;
+
+		boolean descriptor = (entry.flags & FLAG_DESCRIPTOR) != 0;
+		writeInt(0x04034b50);
+		writeShort(20);
+		writeShort(entry.flags);
+		writeShort(entry.method);
+		writeInt(entry.time);
+		writeInt(descriptor ? 0 : entry.crc);
+		writeInt(descriptor ? 0 : entry.compressedSize);
+		writeInt(descriptor ? 0 : entry.size);
+		writeShort(entry.name.length);
+		writeShort(0);
+		write(entry.name, 0, entry.name.length);
+
+		if (entry.data != null) {
+			write(entry.data, 0, entry.data.length);
+		} else if (descriptor) {
+			deflateStream(entry);
+			writeInt(0x08074b50);
+			writeInt(entry.crc);
+			writeInt(entry.compressedSize);
+			writeInt(entry.size);
+		} else {
+			copyStored(entry);
+		}
+	}
+
+	private void copyStored(Entry entry) throws IOException {
+		InputStream in = new FileInputStream(entry.file);
+		try {
+			byte[] buff = new byte[BUFFER_SIZE];
+			long remaining = entry.size;
+			while (remaining > 0) {
+				int read = in.read(buff, 0, (int) Math.min(buff.length, remaining));
+				if (read < 0) {
+					throw new IOException("file changed while reading " + entry.file);
+				}
+				write(buff, 0, read);
+				remaining -= read;
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+	private void deflateStream(Entry entry) throws IOException {
+		CRC32 crc = new CRC32();
+		Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+		InputStream in = new FileInputStream(entry.file);
+		long start = written;
+		try {
+			byte[] input = new byte[BUFFER_SIZE];
+			byte[] output = new byte[BUFFER_SIZE];
+			int read;
+			while ((read = in.read(input)) > 0) {
+				crc.update(input, 0, read);
+				entry.size += read;
+				deflater.setInput(input, 0, read);
+				while (!deflater.needsInput()) {
+					int n = deflater.deflate(output);
+					write(output, 0, n);
+				}
+			}
+			deflater.finish();
+			while (!deflater.finished()) {
+				int n = deflater.deflate(output);
+				write(output, 0, n);
+			}
+		} finally {
+			deflater.end();
+			in.close();
+		}
+		entry.crc = crc.getValue();
+		entry.compressedSize = written - start;
+	}
+
+	private void writeCentralDirectory() throws IOException {
+		long start = written;
+		for (Entry entry : entries) {
+			writeInt(0x02014b50);
+			writeShort(20);
+			writeShort(20);
+			writeShort(entry.flags);
+			writeShort(entry.method);
+			writeInt(entry.time);
+			writeInt(entry.crc);
+			writeInt(entry.compressedSize);
+			writeInt(entry.size);
+			writeShort(entry.name.length);
+			writeShort(0);
+			writeShort(0);
+			writeShort(0);
+			writeShort(0);
+			writeInt(0);
+			writeInt(entry.offset);
+			write(entry.name, 0, entry.name.length);
+		}
+		long size = written - start;
+
+		writeInt(0x06054b50);
+		writeShort(0);
+		writeShort(0);
+		writeShort(entries.size());
+		writeShort(entries.size());
+		writeInt(size);
+		writeInt(start);
+		writeShort(0);
+	}
+
+	private static int dosTime(long millis) {
+		Calendar c = Calendar.getInstance();
+		c.setTimeInMillis(millis);
+		int year = c.get(Calendar.YEAR);
+		if (year < 1980) {
+			return (1 << 21) | (1 << 16);
+		}
+		return (year - 1980) << 25 | (c.get(Calendar.MONTH) + 1) << 21 | c.get(Calendar.DAY_OF_MONTH) << 16
+				| c.get(Calendar.HOUR_OF_DAY) << 11 | c.get(Calendar.MINUTE) << 5 | c.get(Calendar.SECOND) >> 1;
+	}
+
+	private void write(byte[] b, int off, int len) throws IOException {
+		out.write(b, off, len);
+		written += len;
+	}
+
+	private void writeShort(int v) throws IOException {
+		out.write(v & 0xff);
+		out.write((v >> 8) & 0xff);
+		written += 2;
+	}
+
+	private void writeInt(long v) throws IOException {
+		if (v > 0xffffffffL) {
+			throw new IOException("too big for a zip without zip64");
+		}
+		out.write((int) (v & 0xff));
+		out.write((int) ((v >> 8) & 0xff));
+		out.write((int) ((v >> 16) & 0xff));
+		out.write((int) ((v >> 24) & 0xff));
+		written += 4;
+	}
+
+}